@@ -0,0 +1,95 @@
+package dk.kofoed.proxy;
+
+import jakarta.ws.rs.core.Cookie;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.MultivaluedHashMap;
+import jakarta.ws.rs.core.MultivaluedMap;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Fixed request headers for benchmarks, matched case-insensitively like the headers of a real request.
+ */
+public final class BenchmarkHeaders implements HttpHeaders {
+
+    private final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    public BenchmarkHeaders(Map<String, List<String>> headers) {
+        this.headers.putAll(headers);
+    }
+
+    /**
+     * Headers of a typical browser request to the proxy.
+     */
+    public static BenchmarkHeaders browserRequest() {
+        return new BenchmarkHeaders(Map.of(
+            "Host", List.of("proxy.example.com"),
+            "Accept", List.of("application/json"),
+            "Accept-Encoding", List.of("gzip, deflate, br"),
+            "Accept-Language", List.of("da-DK,da;q=0.9,en;q=0.8"),
+            "Connection", List.of("keep-alive"),
+            "Cookie", List.of("q_oidc_proxy=0123456789abcdef0123456789abcdef"),
+            "Referer", List.of("https://app.example.com/orders"),
+            "User-Agent", List.of("Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko)"),
+            "X-Correlation-Id", List.of("4f1c2a9e-8d3b-4c55-9e2f-7b6a1d0c3e84")
+        ));
+    }
+
+    @Override
+    public List<String> getRequestHeader(String name) {
+        return headers.get(name);
+    }
+
+    @Override
+    public String getHeaderString(String name) {
+        List<String> values = headers.get(name);
+        return values == null ? null : String.join(",", values);
+    }
+
+    @Override
+    public MultivaluedMap<String, String> getRequestHeaders() {
+        MultivaluedMap<String, String> map = new MultivaluedHashMap<>();
+        headers.forEach(map::put);
+        return map;
+    }
+
+    @Override
+    public List<MediaType> getAcceptableMediaTypes() {
+        return List.of(MediaType.WILDCARD_TYPE);
+    }
+
+    @Override
+    public List<Locale> getAcceptableLanguages() {
+        return List.of();
+    }
+
+    @Override
+    public MediaType getMediaType() {
+        return null;
+    }
+
+    @Override
+    public Locale getLanguage() {
+        return null;
+    }
+
+    @Override
+    public Map<String, Cookie> getCookies() {
+        return Map.of();
+    }
+
+    @Override
+    public Date getDate() {
+        return null;
+    }
+
+    @Override
+    public int getLength() {
+        return -1;
+    }
+
+}
@@ -0,0 +1,113 @@
+package dk.kofoed.proxy;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.jose4j.jwk.JsonWebKey.OutputControlLevel;
+import org.jose4j.jwk.JsonWebKeySet;
+import org.jose4j.jwk.RsaJsonWebKey;
+import org.jose4j.jwk.RsaJwkGenerator;
+import org.jose4j.jws.AlgorithmIdentifiers;
+import org.jose4j.jws.JsonWebSignature;
+import org.jose4j.jwt.JwtClaims;
+import org.jose4j.jwt.NumericDate;
+import org.jose4j.lang.JoseException;
+
+import dk.kofoed.proxy.client.model.AccessTokenResponse;
+
+/**
+ * Tokens signed with an RS256 key of a made-up OIDC provider, shaped like the tokens of a typical provider, so
+ * benchmarks parse and verify JWTs of a realistic size.
+ */
+public final class BenchmarkTokens {
+
+    private static final String ISSUER = "https://idp.example.com/realms/proxy";
+
+    private final RsaJsonWebKey key;
+
+    private BenchmarkTokens(RsaJsonWebKey key) {
+        this.key = key;
+    }
+
+    public static BenchmarkTokens create() {
+        try {
+            RsaJsonWebKey key = RsaJwkGenerator.generateJwk(2048);
+            key.setKeyId(UUID.randomUUID().toString());
+            return new BenchmarkTokens(key);
+        } catch (JoseException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Token response with an access_token valid for 5 minutes and a refresh_token valid for 30 minutes.
+     */
+    public AccessTokenResponse tokenResponse(String subject) {
+        long now = System.currentTimeMillis() / 1000;
+        return new AccessTokenResponse(
+            accessToken(subject, now + 300), 300, 1800, refreshToken(subject, now + 1800), null, "Bearer", null, null);
+    }
+
+    public String accessToken(String subject, long expiresAt) {
+        JwtClaims claims = claims(subject, expiresAt, "Bearer");
+        claims.setAudience("account");
+        claims.setClaim("azp", "proxy");
+        claims.setClaim("scope", "openid profile email");
+        claims.setClaim("email", subject + "@example.com");
+        claims.setClaim("preferred_username", subject);
+        claims.setClaim("realm_access", Map.of("roles", List.of("offline_access", "uma_authorization", "user")));
+        return sign(claims);
+    }
+
+    public String idToken(String subject, long expiresAt) {
+        JwtClaims claims = claims(subject, expiresAt, "ID");
+        claims.setAudience("proxy");
+        claims.setClaim("auth_time", expiresAt - 300);
+        claims.setClaim("email", subject + "@example.com");
+        claims.setClaim("email_verified", true);
+        claims.setClaim("name", "Benchmark User");
+        claims.setClaim("preferred_username", subject);
+        return sign(claims);
+    }
+
+    public String refreshToken(String subject, long expiresAt) {
+        JwtClaims claims = claims(subject, expiresAt, "Refresh");
+        claims.setAudience(ISSUER);
+        claims.setClaim("scope", "openid profile email");
+        return sign(claims);
+    }
+
+    /**
+     * JSON Web Key Set of the provider, as served from its <code>jwks_uri</code>.
+     */
+    public String jwks() {
+        return new JsonWebKeySet(key).toJson(OutputControlLevel.PUBLIC_ONLY);
+    }
+
+    private static JwtClaims claims(String subject, long expiresAt, String type) {
+        JwtClaims claims = new JwtClaims();
+        claims.setIssuer(ISSUER);
+        claims.setSubject(subject);
+        claims.setExpirationTime(NumericDate.fromSeconds(expiresAt));
+        claims.setIssuedAtToNow();
+        claims.setGeneratedJwtId();
+        claims.setClaim("typ", type);
+        claims.setClaim("sid", UUID.randomUUID().toString());
+        return claims;
+    }
+
+    private String sign(JwtClaims claims) {
+        JsonWebSignature jws = new JsonWebSignature();
+        jws.setPayload(claims.toJson());
+        jws.setKey(key.getPrivateKey());
+        jws.setKeyIdHeaderValue(key.getKeyId());
+        jws.setAlgorithmHeaderValue(AlgorithmIdentifiers.RSA_USING_SHA256);
+        try {
+            return jws.getCompactSerialization();
+        } catch (JoseException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,20 @@
+package dk.kofoed.proxy.client;
+
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+import dk.kofoed.proxy.domain.BackendRoute;
+
+/**
+ * Backends for benchmarks that resolve targets but never call the backend, so no HTTP client is created.
+ */
+public final class BenchmarkBackends {
+
+    private BenchmarkBackends() {
+    }
+
+    public static BackendTarget target(BackendRoute route, String rawPath, String rawQuery) {
+        Backend backend = new Backend(route, null, 0, new PoolMetrics(new CompositeMeterRegistry(), route.prefix()));
+        return new BackendTarget(backend, backend.target(rawPath, rawQuery));
+    }
+
+}
@@ -0,0 +1,68 @@
+package dk.kofoed.proxy.client;
+
+import jakarta.ws.rs.core.Response;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import io.vertx.mutiny.core.MultiMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import dk.kofoed.proxy.BenchmarkHeaders;
+
+/**
+ * Header forwarding per proxied call: request headers copied to the backend request, and backend response headers
+ * copied to the client response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HeaderPolicyBenchmark {
+
+    private HeaderPolicy policy;
+
+    private BenchmarkHeaders requestHeaders;
+
+    private MultiMap responseHeaders;
+
+    @Setup
+    public void setUp() {
+        policy = new HeaderPolicy();
+        policy.propagatedHeaders = List.of("Authorization", "X-Correlation-Id", "Accept", "Accept-Language");
+        policy.deniedResponseHeaders = Optional.of(List.of("Server", "X-Powered-By"));
+        policy.init();
+
+        requestHeaders = BenchmarkHeaders.browserRequest();
+        responseHeaders = MultiMap.caseInsensitiveMultiMap()
+            .add("Content-Type", "application/json")
+            .add("Content-Length", "1832")
+            .add("Cache-Control", "private, max-age=60")
+            .add("ETag", "\"33a64df551425fcc55e4d42a148795d9f25f89d4\"")
+            .add("Date", "Sat, 17 Oct 2026 10:00:00 GMT")
+            .add("Server", "nginx")
+            .add("Connection", "keep-alive, X-Internal-Trace")
+            .add("X-Internal-Trace", "a1b2c3")
+            .add("Set-Cookie", "lang=da; Path=/")
+            .add("Set-Cookie", "theme=dark; Path=/");
+    }
+
+    @Benchmark
+    public void copyRequestHeaders(Blackhole blackhole) {
+        policy.copyRequestHeaders(requestHeaders, (name, values) -> blackhole.consume(values));
+    }
+
+    @Benchmark
+    public Response.ResponseBuilder copyResponseHeaders() {
+        Response.ResponseBuilder builder = Response.ok();
+        policy.copyResponseHeaders(responseHeaders, builder);
+        return builder;
+    }
+
+}
@@ -0,0 +1,86 @@
+package dk.kofoed.proxy.filter;
+
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.core.Response;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.TimeUnit;
+
+import io.smallrye.jwt.auth.principal.DefaultJWTCallerPrincipal;
+import org.eclipse.microprofile.jwt.JsonWebToken;
+import org.jose4j.jwt.JwtClaims;
+import org.jose4j.jwt.consumer.InvalidJwtException;
+import org.jose4j.jwt.consumer.JwtConsumer;
+import org.jose4j.jwt.consumer.JwtConsumerBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import dk.kofoed.proxy.BenchmarkTokens;
+import dk.kofoed.proxy.client.model.AccessTokenResponse;
+import dk.kofoed.proxy.service.BenchmarkServices;
+import dk.kofoed.proxy.service.SecureRandomIds;
+import dk.kofoed.proxy.service.store.BenchmarkStores;
+import dk.kofoed.proxy.service.store.MemoryTokenStore;
+
+/**
+ * Token path of {@link AuthRequestFilter} for an authenticated request with a fresh access_token: session looked
+ * up, expiry checked, and <code>Authorization</code> header replaced. <code>cachedExpiry</code> is the filter as
+ * it is, comparing expiry times resolved once when the token was cached. <code>parsedExpiry</code> adds what the
+ * filter did before that: both tokens of the session parsed on every request to find their expiry.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AuthFilterBenchmark {
+
+    private AuthRequestFilter filter;
+
+    private ContainerRequestContext request;
+
+    private AccessTokenResponse token;
+
+    @Setup
+    public void setUp() {
+        MemoryTokenStore store = BenchmarkStores.memoryStore();
+        filter = BenchmarkFilters.authFilter(store, BenchmarkServices.logSampling());
+
+        String session = SecureRandomIds.newId();
+        token = BenchmarkTokens.create().tokenResponse("f3b0c2a4-5d6e-4f71-8a9b-0c1d2e3f4a5b");
+        store.put(session, BenchmarkServices.tokenHelper().toCacheEntry(token)).await().indefinitely();
+        request = BenchmarkRequests.request("/api/orders/42", BenchmarkFilters.HEADER, "Bearer " + session);
+    }
+
+    @Benchmark
+    public Response cachedExpiry() {
+        return filter.authFilter(request).await().indefinitely();
+    }
+
+    @Benchmark
+    public void parsedExpiry(Blackhole blackhole) throws InvalidJwtException {
+        blackhole.consume(tokenExpired(token.refreshToken(), 0));
+        blackhole.consume(tokenExpired(token.accessToken(), 10));
+        blackhole.consume(filter.authFilter(request).await().indefinitely());
+    }
+
+    /**
+     * Expiry check of a token as the filter used to do it, with a consumer built per call.
+     */
+    private static boolean tokenExpired(String jwt, long gapSeconds) throws InvalidJwtException {
+        JwtConsumer consumer = new JwtConsumerBuilder()
+            .setSkipAllValidators()
+            .setDisableRequireSignature()
+            .setSkipSignatureVerification()
+            .build();
+        JwtClaims claimsSet = consumer.processToClaims(jwt);
+        JsonWebToken parsedToken = new DefaultJWTCallerPrincipal(jwt, "JWT", claimsSet);
+        Instant expirationTime = Instant.ofEpochSecond(parsedToken.getExpirationTime()).minus(gapSeconds, ChronoUnit.SECONDS);
+        return Instant.now().isAfter(expirationTime);
+    }
+
+}
@@ -0,0 +1,39 @@
+package dk.kofoed.proxy.filter;
+
+import dk.kofoed.proxy.domain.AuthType;
+import dk.kofoed.proxy.domain.CacheMethod;
+import dk.kofoed.proxy.service.BenchmarkServices;
+import dk.kofoed.proxy.service.LogSampling;
+import dk.kofoed.proxy.service.TokenRefreshScheduler;
+import dk.kofoed.proxy.service.store.MemoryTokenStore;
+
+/**
+ * Filters wired up by hand for benchmarks, with metrics and proactive refresh turned off.
+ */
+final class BenchmarkFilters {
+
+    static final String HEADER = "Authorization";
+
+    private BenchmarkFilters() {
+    }
+
+    /**
+     * Auth filter for <code>BEARER</code> authentication with sessions in <code>store</code>.
+     */
+    static AuthRequestFilter authFilter(MemoryTokenStore store, LogSampling logSampling) {
+        TokenRefreshScheduler scheduler = BenchmarkServices.refreshScheduler();
+        AuthRequestFilter filter = new AuthRequestFilter();
+        filter.authType = AuthType.BEARER;
+        filter.headerName = HEADER;
+        filter.cacheMethod = CacheMethod.MEMORY;
+        filter.rotationGraceSeconds = 10;
+        filter.routingContext = BenchmarkRequests.routingContext();
+        filter.tokenCache = BenchmarkServices.tokenCache(store, scheduler, BenchmarkServices.tokenVerifier(null), logSampling);
+        filter.tokenRefreshScheduler = scheduler;
+        filter.metrics = BenchmarkServices.metrics();
+        filter.logSampling = logSampling;
+        filter.init();
+        return filter;
+    }
+
+}
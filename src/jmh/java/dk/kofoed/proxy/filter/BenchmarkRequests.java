@@ -0,0 +1,69 @@
+package dk.kofoed.proxy.filter;
+
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.core.MultivaluedHashMap;
+import jakarta.ws.rs.core.MultivaluedMap;
+import jakarta.ws.rs.core.UriInfo;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Request and routing contexts for benchmarks of the filters, answering only the calls the filters make.
+ */
+final class BenchmarkRequests {
+
+    private BenchmarkRequests() {
+    }
+
+    /**
+     * Request for <code>path</code> with a single header. Headers set by the filter are kept, so the context
+     * can be passed through the filter again.
+     */
+    static ContainerRequestContext request(String path, String headerName, String headerValue) {
+        UriInfo uriInfo = proxy(UriInfo.class, (method, args) -> switch (method) {
+            case "getPath" -> path;
+            default -> throw new UnsupportedOperationException(method);
+        });
+        MultivaluedMap<String, String> headers = new MultivaluedHashMap<>();
+        return proxy(ContainerRequestContext.class, (method, args) -> switch (method) {
+            case "getUriInfo" -> uriInfo;
+            case "getHeaderString" -> headerName.equalsIgnoreCase((String) args[0]) ? headerValue : null;
+            case "getHeaders" -> headers;
+            default -> throw new UnsupportedOperationException(method);
+        });
+    }
+
+    /**
+     * Routing context with attributes only.
+     */
+    static RoutingContext routingContext() {
+        Map<String, Object> attributes = new HashMap<>();
+        RoutingContext[] context = new RoutingContext[1];
+        context[0] = proxy(RoutingContext.class, (method, args) -> switch (method) {
+            case "put" -> {
+                attributes.put((String) args[0], args[1]);
+                yield context[0];
+            }
+            case "get" -> attributes.get((String) args[0]);
+            default -> throw new UnsupportedOperationException(method);
+        });
+        return context[0];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+            (proxy, method, args) -> handler.invoke(method.getName(), args));
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+
+        Object invoke(String method, Object[] args);
+
+    }
+
+}
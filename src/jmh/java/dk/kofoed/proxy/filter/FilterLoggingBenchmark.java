@@ -0,0 +1,97 @@
+package dk.kofoed.proxy.filter;
+
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.core.Response;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jboss.logmanager.formatters.JsonFormatter;
+import org.jboss.logmanager.formatters.PatternFormatter;
+import org.jboss.logmanager.handlers.OutputStreamHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import dk.kofoed.proxy.BenchmarkTokens;
+import dk.kofoed.proxy.service.BenchmarkServices;
+import dk.kofoed.proxy.service.SecureRandomIds;
+import dk.kofoed.proxy.service.store.BenchmarkStores;
+import dk.kofoed.proxy.service.store.MemoryTokenStore;
+
+/**
+ * Throughput of {@link AuthRequestFilter} for authenticated requests, with per-request logging as it used to be
+ * by default (<code>PER_REQUEST</code>: the path and the cache lookup logged at <code>INFO</code> on every
+ * request) and as it is now (<code>SAMPLED</code>, <code>LOG_SAMPLE_RATE</code> 0), in the console format of
+ * <code>LOG_JSON</code> off and on. Log records are formatted, and then written to a stream that discards them,
+ * so terminal I/O is left out.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(4)
+@Fork(value = 1, jvmArgsAppend = "-Djava.util.logging.manager=org.jboss.logmanager.LogManager")
+public class FilterLoggingBenchmark {
+
+    public enum Logging { PER_REQUEST, SAMPLED }
+
+    public enum Format { TEXT, JSON }
+
+    @Param({"PER_REQUEST", "SAMPLED"})
+    public Logging logging;
+
+    private AuthRequestFilter filter;
+
+    private ContainerRequestContext request;
+
+    @Setup
+    public void setUp(Console console) {
+        MemoryTokenStore store = BenchmarkStores.memoryStore();
+        filter = BenchmarkFilters.authFilter(store, BenchmarkServices.logSampling(logging == Logging.PER_REQUEST ? 1 : 0));
+
+        String session = SecureRandomIds.newId();
+        store.put(session, BenchmarkServices.tokenHelper()
+            .toCacheEntry(BenchmarkTokens.create().tokenResponse("f3b0c2a4-5d6e-4f71-8a9b-0c1d2e3f4a5b"))).await().indefinitely();
+        request = BenchmarkRequests.request("/api/orders/42", BenchmarkFilters.HEADER, "Bearer " + session);
+    }
+
+    @Benchmark
+    public Response authenticate() {
+        return filter.authFilter(request).await().indefinitely();
+    }
+
+    /**
+     * Console log of the proxy: the default Quarkus pattern, or JSON, written nowhere. Set up once, for all threads.
+     */
+    @State(Scope.Benchmark)
+    public static class Console {
+
+        @Param({"TEXT", "JSON"})
+        public Format format;
+
+        @Setup
+        public void setUp() {
+            Formatter formatter = format == Format.JSON
+                ? new JsonFormatter()
+                : new PatternFormatter("%d{yyyy-MM-dd HH:mm:ss,SSS} %-5p [%c{3.}] (%t) %s%e%n");
+            Logger root = Logger.getLogger("");
+            for (Handler handler : root.getHandlers()) {
+                root.removeHandler(handler);
+            }
+            root.addHandler(new OutputStreamHandler(OutputStream.nullOutputStream(), formatter));
+            root.setLevel(Level.INFO);
+        }
+
+    }
+
+}
@@ -0,0 +1,47 @@
+package dk.kofoed.proxy.service;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Authorization URI built for each login, from the default <code>OIDC_AUTH_URI_TEMPLATE</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AuthUriTemplateBenchmark {
+
+    private static final String TEMPLATE = "?response_type=code&client_id={{clientId}}&scope=openid&state={{state}}"
+        + "&code_challenge={{codeChallenge}}&code_challenge_method=S256&redirect_uri={{redirectUri}}";
+
+    private AuthUriTemplate template;
+
+    private String state;
+
+    private String codeChallenge;
+
+    @Setup
+    public void setUp() {
+        template = AuthUriTemplate.compile(
+            "https://idp.example.com/realms/proxy/protocol/openid-connect/auth",
+            TEMPLATE,
+            Map.of("clientId", "q-oidc-proxy", "redirectUri", "https%3A%2F%2Fproxy.example.com%2Fcallback")
+        );
+        state = SecureRandomIds.newId();
+        codeChallenge = "E9Melhoa2OwvFrEMTJguCHaoeK1t8URWbuGJSstw-cM";
+    }
+
+    @Benchmark
+    public String build() {
+        return template.build(state, codeChallenge);
+    }
+
+}
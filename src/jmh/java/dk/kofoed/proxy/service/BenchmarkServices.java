@@ -0,0 +1,105 @@
+package dk.kofoed.proxy.service;
+
+import jakarta.enterprise.inject.Instance;
+import java.lang.reflect.Proxy;
+
+import io.smallrye.mutiny.Uni;
+import org.eclipse.microprofile.config.ConfigProvider;
+
+import dk.kofoed.proxy.domain.CacheMethod;
+import dk.kofoed.proxy.service.store.MemoryTokenStore;
+
+/**
+ * Services wired up by hand for benchmarks in other packages, with metrics, sampled logging and proactive
+ * refresh turned off, so only the code under test is measured.
+ */
+public final class BenchmarkServices {
+
+    private BenchmarkServices() {
+    }
+
+    public static ProxyMetrics metrics() {
+        ProxyMetrics metrics = new ProxyMetrics();
+        metrics.enabled = false;
+        metrics.init();
+        return metrics;
+    }
+
+    public static LogSampling logSampling() {
+        return logSampling(0);
+    }
+
+    /**
+     * Sampled logging with one in <code>rate</code> of per-request statements logged at <code>INFO</code>.
+     */
+    public static LogSampling logSampling(int rate) {
+        LogSampling logSampling = new LogSampling();
+        logSampling.defaultRate = rate;
+        logSampling.config = ConfigProvider.getConfig();
+        return logSampling;
+    }
+
+    public static TokenRefreshScheduler refreshScheduler() {
+        TokenRefreshScheduler scheduler = new TokenRefreshScheduler();
+        scheduler.enabled = false;
+        return scheduler;
+    }
+
+    public static TokenHelper tokenHelper() {
+        return new TokenHelper();
+    }
+
+    /**
+     * Verifier of tokens signed by a key in <code>jwks</code>, or a disabled verifier if <code>jwks</code> is
+     * <code>null</code>. The key set is fetched by the first verification.
+     */
+    public static TokenVerifier tokenVerifier(String jwks) {
+        TokenVerifier verifier = new TokenVerifier();
+        verifier.enabled = jwks != null;
+        verifier.minRefreshIntervalSeconds = 60;
+        verifier.authService = new AuthService() {
+            @Override
+            public Uni<String> getJsonWebKeySet() {
+                return Uni.createFrom().item(jwks);
+            }
+        };
+        verifier.init();
+        return verifier;
+    }
+
+    /**
+     * Token cache backed by <code>store</code>.
+     */
+    public static TokenCache tokenCache(MemoryTokenStore store, TokenRefreshScheduler scheduler, TokenVerifier verifier) {
+        return tokenCache(store, scheduler, verifier, logSampling());
+    }
+
+    public static TokenCache tokenCache(MemoryTokenStore store, TokenRefreshScheduler scheduler, TokenVerifier verifier,
+            LogSampling logSampling) {
+        TokenCache cache = new TokenCache();
+        cache.cacheMethod = CacheMethod.MEMORY;
+        cache.tokenHelper = tokenHelper();
+        cache.tokenVerifier = verifier;
+        cache.metrics = metrics();
+        cache.logSampling = logSampling;
+        cache.tokenRefreshScheduler = scheduler;
+        cache.memoryStore = instance(store);
+        cache.init();
+        return cache;
+    }
+
+    /**
+     * <code>Instance</code> that only resolves to <code>bean</code>.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> Instance<T> instance(T bean) {
+        return (Instance<T>) Proxy.newProxyInstance(Instance.class.getClassLoader(), new Class<?>[] {Instance.class},
+            (proxy, method, args) -> {
+                if (method.getName().equals("get")) {
+                    return bean;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            });
+    }
+
+}
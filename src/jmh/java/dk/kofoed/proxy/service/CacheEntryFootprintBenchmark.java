@@ -0,0 +1,126 @@
+package dk.kofoed.proxy.service;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dk.kofoed.proxy.BenchmarkTokens;
+import dk.kofoed.proxy.client.model.AccessTokenResponse;
+import dk.kofoed.proxy.domain.CachedToken;
+import dk.kofoed.proxy.service.store.BenchmarkStores;
+import dk.kofoed.proxy.service.store.MemoryTokenStore;
+
+/**
+ * Heap taken up by cache entries in the in-memory store at 100k and 1M sessions. <code>FULL</code> keeps the
+ * token response as received, as entries did before they were compacted; <code>COMPACT</code> keeps only the
+ * fields needed for proxying, and <code>COMPACT_WITH_ID_TOKEN</code> also the id_token
+ * (<code>AUTHENTICATION_CACHE_RETAIN_ID_TOKEN</code>). Every session gets its own copy of the token strings, as
+ * if read from the token endpoint. The time is that of filling the store; the heap retained per session is
+ * printed after each iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class CacheEntryFootprintBenchmark {
+
+    private static final String SUBJECT = "f3b0c2a4-5d6e-4f71-8a9b-0c1d2e3f4a5b";
+
+    public enum Entry { FULL, COMPACT, COMPACT_WITH_ID_TOKEN }
+
+    @Param({"100000", "1000000"})
+    public int sessions;
+
+    @Param({"FULL", "COMPACT", "COMPACT_WITH_ID_TOKEN"})
+    public Entry entry;
+
+    private AccessTokenResponse response;
+
+    private long expiry;
+
+    private TokenHelper tokenHelper;
+
+    private String[] keys;
+
+    private MemoryTokenStore store;
+
+    private long heapBefore;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkTokens tokens = BenchmarkTokens.create();
+        long now = System.currentTimeMillis() / 1000;
+        expiry = (now + 1800) * 1000;
+        response = new AccessTokenResponse(tokens.accessToken(SUBJECT, now + 300), 300, 1800,
+            tokens.refreshToken(SUBJECT, now + 1800), tokens.idToken(SUBJECT, now + 300), "Bearer",
+            UUID.randomUUID().toString(), "openid profile email");
+        tokenHelper = new TokenHelper();
+        tokenHelper.retainIdToken = entry == Entry.COMPACT_WITH_ID_TOKEN;
+        keys = new String[sessions];
+        for (int i = 0; i < sessions; i++) {
+            keys[i] = SecureRandomIds.newId();
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void measureHeapBefore() {
+        store = null;
+        heapBefore = usedHeapAfterGc();
+    }
+
+    @Benchmark
+    public MemoryTokenStore fill() {
+        store = BenchmarkStores.memoryStore();
+        for (String key : keys) {
+            AccessTokenResponse received = copy(response);
+            CachedToken token = entry == Entry.FULL
+                ? new CachedToken(received, copy(SUBJECT), expiry - 1_500_000, expiry)
+                : tokenHelper.toCacheEntry(received);
+            store.put(key, token).await().indefinitely();
+        }
+        return store;
+    }
+
+    @TearDown(Level.Iteration)
+    public void printHeapPerSession() {
+        long retained = usedHeapAfterGc() - heapBefore;
+        System.out.printf("%n%s, %d sessions: %d bytes of heap per session (%d MB in all)%n",
+            entry, store.size(), retained / sessions, retained / (1024 * 1024));
+    }
+
+    private static AccessTokenResponse copy(AccessTokenResponse response) {
+        return new AccessTokenResponse(copy(response.accessToken()), response.expireSeconds(), response.refreshExpireSeconds(),
+            copy(response.refreshToken()), copy(response.idToken()), copy(response.tokenType()), copy(response.sessionState()),
+            copy(response.scope()));
+    }
+
+    private static String copy(String value) {
+        // new String(String) would share the characters of the original
+        return new String(value.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+    }
+
+    private static long usedHeapAfterGc() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+}
@@ -0,0 +1,59 @@
+package dk.kofoed.proxy.service;
+
+import java.util.Base64;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import dk.kofoed.proxy.domain.AuthenticationSessionData;
+import dk.kofoed.proxy.domain.StateMode;
+
+/**
+ * PKCE code verifier, challenge and state generated for each login, without precomputed verifiers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProofKeyCodeExchangeBenchmark {
+
+    @Param({"MEMORY", "ENCRYPTED"})
+    public StateMode stateMode;
+
+    private ProofKeyCodeExchangeService service;
+
+    @Setup
+    public void setUp() {
+        ProxyMetrics metrics = new ProxyMetrics();
+        metrics.enabled = false;
+        metrics.init();
+
+        PendingLoginStore pendingLogins = new PendingLoginStore();
+        pendingLogins.ttlSeconds = 600;
+        pendingLogins.maxSize = 10_000;
+        pendingLogins.metrics = metrics;
+        pendingLogins.init();
+
+        service = new ProofKeyCodeExchangeService();
+        service.poolSize = 0;
+        service.stateMode = stateMode;
+        service.stateKey = Optional.of(Base64.getEncoder().encodeToString(new byte[32]));
+        service.stateTtlSeconds = 600;
+        service.clientId = "q-oidc-proxy";
+        service.pendingLogins = pendingLogins;
+        service.init();
+    }
+
+    @Benchmark
+    public AuthenticationSessionData buildNewSessionData() {
+        return service.buildNewSessionData();
+    }
+
+}
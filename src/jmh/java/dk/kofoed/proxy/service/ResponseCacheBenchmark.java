@@ -0,0 +1,74 @@
+package dk.kofoed.proxy.service;
+
+import jakarta.ws.rs.core.Response;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import io.smallrye.mutiny.Uni;
+import io.vertx.core.buffer.Buffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import dk.kofoed.proxy.BenchmarkHeaders;
+import dk.kofoed.proxy.client.BackendTarget;
+import dk.kofoed.proxy.client.BenchmarkBackends;
+import dk.kofoed.proxy.domain.BackendRoute;
+import dk.kofoed.proxy.domain.CacheScope;
+
+/**
+ * <code>GET</code> served from the response cache: key built from the target and the subject of the session,
+ * entry found fresh, and response rebuilt from it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ResponseCacheBenchmark {
+
+    private static final String SUBJECT = "f3b0c2a4-5d6e-4f71-8a9b-0c1d2e3f4a5b";
+
+    @Param({"PRIVATE", "PUBLIC"})
+    public CacheScope scope;
+
+    private ResponseCache cache;
+
+    private BackendTarget target;
+
+    private BenchmarkHeaders headers;
+
+    private Function<String, Uni<Response>> fetch;
+
+    @Setup
+    public void setUp() {
+        ProxyMetrics metrics = new ProxyMetrics();
+        metrics.enabled = false;
+        metrics.init();
+
+        cache = new ResponseCache();
+        cache.maxSize = 64 * 1024 * 1024;
+        cache.maxEntrySize = 1024 * 1024;
+        cache.metrics = metrics;
+        cache.init();
+
+        target = BenchmarkBackends.target(BackendRoute.fallback("http://backend:8080", scope), "/orders/42", "expand=lines");
+        headers = BenchmarkHeaders.browserRequest();
+        Buffer body = Buffer.buffer("{\"id\":42,\"lines\":[]}".repeat(50));
+        fetch = etag -> Uni.createFrom().item(() -> Response.ok(body)
+            .header("Content-Type", "application/json")
+            .header("Cache-Control", "max-age=3600")
+            .build());
+        // fill the cache, so every benchmark call is a hit
+        cache.get(target, headers, SUBJECT, fetch).await().indefinitely();
+    }
+
+    @Benchmark
+    public Response hit() {
+        return cache.get(target, headers, SUBJECT, fetch).await().indefinitely();
+    }
+
+}
@@ -0,0 +1,86 @@
+package dk.kofoed.proxy.service;
+
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import dk.kofoed.proxy.BenchmarkTokens;
+import dk.kofoed.proxy.domain.AuthType;
+import dk.kofoed.proxy.domain.CacheMethod;
+import dk.kofoed.proxy.domain.CachedToken;
+import dk.kofoed.proxy.service.store.BenchmarkStores;
+import dk.kofoed.proxy.service.store.MemoryTokenStore;
+
+/**
+ * Per-request cost of the <code>COOKIE</code> cache method against the in-memory store: <code>openCookie</code>
+ * decrypts and inflates the token sealed in the cookies of a request, <code>lookupSession</code> finds the token of
+ * a session ID among 100k sessions. <code>sealCookie</code> is the cost of sealing a token after login or refresh.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TokenCookieBenchmark {
+
+    private static final int SESSIONS = 100_000;
+
+    private TokenCookieCodec codec;
+
+    private CachedToken token;
+
+    private List<String> cookies;
+
+    private MemoryTokenStore store;
+
+    private String[] keys;
+
+    @Setup
+    public void setUp() {
+        byte[] key = new byte[32];
+        SecureRandomIds.random().nextBytes(key);
+        codec = new TokenCookieCodec();
+        codec.cacheMethod = CacheMethod.COOKIE;
+        codec.authType = AuthType.COOKIE;
+        codec.key = Optional.of(Base64.getEncoder().encodeToString(key));
+        codec.chunkSize = 3800;
+        codec.maxChunks = 4;
+        codec.cookieName = "q_oidc_proxy";
+        codec.init();
+
+        BenchmarkTokens tokens = BenchmarkTokens.create();
+        token = BenchmarkServices.tokenHelper().toCacheEntry(tokens.tokenResponse("f3b0c2a4-5d6e-4f71-8a9b-0c1d2e3f4a5b"));
+        cookies = codec.encode(token);
+
+        store = BenchmarkStores.memoryStore();
+        keys = new String[SESSIONS];
+        for (int i = 0; i < SESSIONS; i++) {
+            keys[i] = SecureRandomIds.newId();
+            store.put(keys[i], token).await().indefinitely();
+        }
+    }
+
+    @Benchmark
+    public CachedToken openCookie() {
+        return codec.decode(cookies);
+    }
+
+    @Benchmark
+    public CachedToken lookupSession() {
+        return store.get(keys[ThreadLocalRandom.current().nextInt(SESSIONS)]).await().indefinitely();
+    }
+
+    @Benchmark
+    public List<String> sealCookie() {
+        return codec.encode(token);
+    }
+
+}
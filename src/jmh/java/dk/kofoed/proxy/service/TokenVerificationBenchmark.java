@@ -0,0 +1,60 @@
+package dk.kofoed.proxy.service;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import dk.kofoed.proxy.BenchmarkTokens;
+import dk.kofoed.proxy.client.model.AccessTokenResponse;
+import dk.kofoed.proxy.service.store.BenchmarkStores;
+
+/**
+ * Cost of local signature verification (<code>OIDC_TOKEN_VERIFY</code>) with and without it turned on. Tokens
+ * are verified once, when put in the cache after login or refresh, so <code>put</code> is where it shows;
+ * requests served from the cache never verify. <code>verify</code> is the RS256 check on its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TokenVerificationBenchmark {
+
+    @Param({"false", "true"})
+    public boolean enabled;
+
+    private TokenVerifier verifier;
+
+    private TokenCache cache;
+
+    private AccessTokenResponse token;
+
+    private String session;
+
+    @Setup
+    public void setUp() {
+        BenchmarkTokens tokens = BenchmarkTokens.create();
+        verifier = BenchmarkServices.tokenVerifier(enabled ? tokens.jwks() : null);
+        cache = BenchmarkServices.tokenCache(BenchmarkStores.memoryStore(), BenchmarkServices.refreshScheduler(), verifier);
+        token = tokens.tokenResponse("f3b0c2a4-5d6e-4f71-8a9b-0c1d2e3f4a5b");
+        session = SecureRandomIds.newId();
+        // the first verification fetches the key set
+        verifier.verify(token.accessToken()).await().indefinitely();
+    }
+
+    @Benchmark
+    public Void verify() {
+        return verifier.verify(token.accessToken()).await().indefinitely();
+    }
+
+    @Benchmark
+    public Void put() {
+        return cache.put(session, token).await().indefinitely();
+    }
+
+}
@@ -0,0 +1,23 @@
+package dk.kofoed.proxy.service.store;
+
+/**
+ * Token stores for benchmarks in other packages.
+ */
+public final class BenchmarkStores {
+
+    private BenchmarkStores() {
+    }
+
+    /**
+     * In-memory store without a journal.
+     */
+    public static MemoryTokenStore memoryStore() {
+        TokenJournal journal = new TokenJournal();
+        journal.enabled = false;
+        MemoryTokenStore store = new MemoryTokenStore();
+        store.journal = journal;
+        store.init();
+        return store;
+    }
+
+}
@@ -0,0 +1,114 @@
+package dk.kofoed.proxy.service.store;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dk.kofoed.proxy.BenchmarkTokens;
+import dk.kofoed.proxy.domain.CachedToken;
+import dk.kofoed.proxy.service.BenchmarkServices;
+import dk.kofoed.proxy.service.SecureRandomIds;
+
+/**
+ * Startup of the in-memory store with persistence enabled: the token journal is replayed, decrypted and
+ * compacted, and the expiry index rebuilt, before the first request is served.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class JournalReplayBenchmark {
+
+    /**
+     * Log space per entry, a little more than an encrypted record of the benchmark tokens.
+     */
+    private static final int BYTES_PER_ENTRY = 2560;
+
+    @Param({"100000", "500000"})
+    public int entries;
+
+    private Path directory;
+
+    private String key;
+
+    private TokenJournal journal;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("token-journal");
+        byte[] keyBytes = new byte[32];
+        SecureRandomIds.random().nextBytes(keyBytes);
+        key = Base64.getEncoder().encodeToString(keyBytes);
+
+        // one token for all sessions, as signing a token per session would take minutes
+        CachedToken token = BenchmarkServices.tokenHelper()
+            .toCacheEntry(BenchmarkTokens.create().tokenResponse("f3b0c2a4-5d6e-4f71-8a9b-0c1d2e3f4a5b"));
+        Map<String, CachedToken> sessions = new ConcurrentHashMap<>();
+        for (int i = 0; i < entries; i++) {
+            sessions.put(SecureRandomIds.newId(), token);
+        }
+        // opening a journal that does not exist yet compacts the sessions into it
+        journal = journal();
+        journal.open(sessions);
+        journal.close();
+    }
+
+    @Benchmark
+    public int restore() {
+        return store().size();
+    }
+
+    @TearDown(Level.Invocation)
+    public void close() {
+        journal.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (var files = Files.list(directory)) {
+            for (Path path : files.toList()) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    private MemoryTokenStore store() {
+        journal = journal();
+        MemoryTokenStore store = new MemoryTokenStore();
+        store.journal = journal;
+        store.init();
+        return store;
+    }
+
+    private TokenJournal journal() {
+        TokenJournal created = new TokenJournal();
+        created.enabled = true;
+        created.path = directory.resolve("tokens.journal");
+        created.key = Optional.of(key);
+        created.size = entries * BYTES_PER_ENTRY;
+        return created;
+    }
+
+}
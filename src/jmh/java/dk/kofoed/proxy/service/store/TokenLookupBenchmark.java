@@ -0,0 +1,61 @@
+package dk.kofoed.proxy.service.store;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import dk.kofoed.proxy.client.model.AccessTokenResponse;
+import dk.kofoed.proxy.domain.CachedToken;
+import dk.kofoed.proxy.service.SecureRandomIds;
+
+/**
+ * Session lookup done by every authenticated request: find the cached token of a session ID in the in-memory
+ * store and check whether its access_token needs a refresh.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+public class TokenLookupBenchmark {
+
+    @Param({"1000", "100000"})
+    public int sessions;
+
+    private MemoryTokenStore store;
+
+    private String[] keys;
+
+    @Setup
+    public void setUp() {
+        TokenJournal journal = new TokenJournal();
+        journal.enabled = false;
+        store = new MemoryTokenStore();
+        store.journal = journal;
+        store.init();
+
+        long now = System.currentTimeMillis();
+        keys = new String[sessions];
+        for (int i = 0; i < sessions; i++) {
+            keys[i] = SecureRandomIds.newId();
+            AccessTokenResponse token = new AccessTokenResponse(
+                "access-" + i, 300, 1800, "refresh-" + i, null, "Bearer", null, null);
+            store.put(keys[i], new CachedToken(token, "user-" + i, now + 300_000, now + 1_800_000)).await().indefinitely();
+        }
+    }
+
+    @Benchmark
+    public boolean lookup() {
+        String key = keys[ThreadLocalRandom.current().nextInt(keys.length)];
+        return store.get(key).await().indefinitely().accessTokenExpired(10);
+    }
+
+}
@@ -10,23 +10,23 @@ import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.NewCookie;
-import jakarta.ws.rs.core.NewCookie.SameSite;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.Response.Status;
 import java.net.URI;
-import java.net.URISyntaxException;
-import java.time.Duration;
-import java.util.Date;
-import java.util.UUID;
 
+import io.smallrye.mutiny.Uni;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import dk.kofoed.proxy.client.model.AccessTokenResponse;
 import dk.kofoed.proxy.domain.AuthType;
+import dk.kofoed.proxy.domain.CacheMethod;
+import dk.kofoed.proxy.exception.ProxyClientException;
 import dk.kofoed.proxy.exception.StateMismatchException;
 import dk.kofoed.proxy.service.AuthService;
+import dk.kofoed.proxy.service.Redact;
+import dk.kofoed.proxy.service.SecureRandomIds;
 import dk.kofoed.proxy.service.TokenCache;
 
 @RequestScoped
@@ -38,61 +38,60 @@ public class OidcApi {
     @ConfigProperty(name = "auth.proxy.type")
     AuthType authType;
 
-    @ConfigProperty(name = "auth.proxy.cookie.name")
-    String cookieName;
+    @ConfigProperty(name = "auth.proxy.cache.method")
+    CacheMethod cacheMethod;
 
     @ConfigProperty(name = "auth.proxy.frontend.redirect")
     String frontendRedirect;
 
-    @ConfigProperty(name = "auth.proxy.cookie.domain")
-    String cookieDomain;
-
     @ConfigProperty(name = "auth.proxy.frontend.callback.param.name")
     String callbackParamName;
 
-    @ConfigProperty(name = "auth.proxy.cookie.samesite")
-    SameSite sameSite;
-
     @Inject
     AuthService authService;
 
     @Inject
     TokenCache tokenCache;
 
+    @Inject
+    SessionCookies sessionCookies;
+
     /**
-     * Handle OAuth callbacks from OIDC provider.
+     * Handle OAuth callbacks from OIDC provider. The code exchange and caching of the token are non-blocking,
+     * so the callback is handled on the event loop. The token is cached under a new, random session ID, which is
+     * handed to the client instead of the authorization code.
      */
     @Path("/callback")
     @GET
-    public Response oauthCallback(
+    public Uni<Response> oauthCallback(
         @QueryParam("state") String state,
-        @QueryParam("code") String authCode) throws URISyntaxException {
+        @QueryParam("code") String authCode) {
         
-        logger.info("Got callback from OIDC provider. State: [{}]. Authorization code: [{}].", state, authCode);
+        logger.debug("Got callback from OIDC provider. State: [{}]. Authorization code: [{}].",
+            Redact.secret(state), Redact.secret(authCode));
 
         // check if state UUID is one issued by us, otherwise throw exception:
         if (!authService.stateIdOk(state)) {
             throw new StateMismatchException("State UUID returned from OIDC provider did not match any created by us");
         }
 
-        // Exchange auth token for a full access token / JWT and add to cache
-        AccessTokenResponse accessToken = authService.getAccessToken(authCode, state);
-        if (accessToken == null) {
-            return Response.serverError().build();
-        } else {
-            tokenCache.put(authCode, accessToken);
-        }
-
-        // depending on which auth type is selected, return authentication token to client
-        if (authType == AuthType.COOKIE) {
-            NewCookie cookie = buildCookie(authCode);
-            return Response.status(Status.FOUND).location(new URI(frontendRedirect)).cookie(cookie).build();
-        }
-        if (authType == AuthType.BEARER) {
-            return Response.status(Status.FOUND).location(new URI(buildRedirect(authCode))).build();
+        if (cacheMethod == CacheMethod.COOKIE) {
+            // Exchange auth token for a full access token / JWT and hand it to the client in sealed cookies
+            return authService.getAccessToken(authCode, state)
+                .onItem().ifNull().failWith(() -> new ProxyClientException("Could not retrieve access token", 500))
+                .chain(accessToken -> tokenCache.seal(accessToken))
+                .map(chunks -> Response.status(Status.FOUND)
+                    .location(URI.create(frontendRedirect))
+                    .cookie(sessionCookies.buildTokenCookies(chunks).toArray(NewCookie[]::new))
+                    .build());
         }
 
-        return Response.seeOther(new URI(frontendRedirect)).build();
+        // Exchange auth token for a full access token / JWT and add to cache
+        String sessionId = SecureRandomIds.newId();
+        return authService.getAccessToken(authCode, state)
+            .onItem().ifNull().failWith(() -> new ProxyClientException("Could not retrieve access token", 500))
+            .call(accessToken -> tokenCache.put(sessionId, accessToken))
+            .map(accessToken -> buildCallbackResponse(sessionId));
     }
 
     /**
@@ -103,34 +102,34 @@ public class OidcApi {
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getAuthCode(AccessTokenResponse accessToken) {
-        String authCode = UUID.randomUUID().toString();
-        tokenCache.put(authCode, accessToken);
-        return Response.ok("{ \"authcode\": \"" + authCode + "\" }").build();
+    public Uni<Response> getAuthCode(AccessTokenResponse accessToken) {
+        String authCode = SecureRandomIds.newId();
+        return tokenCache.put(authCode, accessToken)
+            .map(ignored -> Response.ok("{ \"authcode\": \"" + authCode + "\" }").build());
+    }
 
+    /**
+     * Depending on which auth type is selected, return authentication token to client.
+     */
+    private Response buildCallbackResponse(String sessionId) {
+        if (authType == AuthType.COOKIE) {
+            NewCookie cookie = sessionCookies.build(sessionId);
+            return Response.status(Status.FOUND).location(URI.create(frontendRedirect)).cookie(cookie).build();
+        }
+        if (authType == AuthType.BEARER) {
+            return Response.status(Status.FOUND).location(URI.create(buildRedirect(sessionId))).build();
+        }
+        return Response.seeOther(URI.create(frontendRedirect)).build();
     }
     
-    private String buildRedirect(String authCode) {
+    private String buildRedirect(String sessionId) {
         StringBuilder sb = new StringBuilder();
         sb.append(frontendRedirect);
         sb.append("?");
         sb.append(callbackParamName);
         sb.append("=");
-        sb.append(authCode);
+        sb.append(sessionId);
         return sb.toString();
     }
 
-    private NewCookie buildCookie(String authCode) {
-        return new NewCookie.Builder(cookieName)
-            .domain(cookieDomain)
-            .path("/")
-            .httpOnly(true)
-            .secure(true)
-            .sameSite(sameSite)
-            .expiry(new Date(System.currentTimeMillis() + Duration.ofDays(1).toMillis()))
-            .maxAge(86400)
-            .value(authCode)
-            .build();
-    }
-
 }
@@ -1,6 +1,6 @@
 package dk.kofoed.proxy.api;
 
-import jakarta.enterprise.context.RequestScoped;
+import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.DELETE;
@@ -9,30 +9,53 @@ import jakarta.ws.rs.PATCH;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.PUT;
 import jakarta.ws.rs.Path;
-import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
-import java.util.Set;
 
 import io.smallrye.mutiny.Uni;
-import org.eclipse.microprofile.rest.client.inject.RestClient;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.ext.web.RoutingContext;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import dk.kofoed.proxy.client.BackendClient;
+import dk.kofoed.proxy.client.BackendTarget;
+import dk.kofoed.proxy.exception.ProxyClientException;
+import dk.kofoed.proxy.filter.AuthRequestFilter;
+import dk.kofoed.proxy.service.BackendReplayService;
+import dk.kofoed.proxy.service.ProxyMetrics;
+import dk.kofoed.proxy.service.ResponseCache;
+
+@ApplicationScoped
+@Path(ProxyApi.API_PREFIX)
+public class ProxyApi {
 
-import dk.kofoed.proxy.client.ProxyClient;
-import dk.kofoed.proxy.client.RestPathHelper;
+    static final String API_PREFIX = "/api";
 
-@RequestScoped
-@Path("/api")
-public class ProxyApi {
+    @Inject
+    BackendClient backendClient;
 
-    private static final Set<String> HEADER_PROPAGATION_BLACKLIST = Set.of("content-length", "transfer-encoding", "connection");
+    @Inject
+    BackendReplayService replayService;
 
     @Inject
-    @RestClient
-    ProxyClient proxyClient;
+    RoutingContext routingContext;
 
     @Inject
-    RestPathHelper pathHelper;
+    ProxyMetrics metrics;
+
+    @Inject
+    ResponseCache responseCache;
+
+    @ConfigProperty(name = "auth.proxy.backend.streaming.enabled")
+    boolean streamingEnabled;
+
+    @ConfigProperty(name = "auth.proxy.header.name")
+    String headerName;
 
     /**
      * Match any paths for GET requests.
@@ -40,11 +63,11 @@ public class ProxyApi {
     @Path("/{any:.*}")
     @GET
     @Produces(MediaType.WILDCARD)
-    public Uni<Response> proxyBackendGetData(@PathParam("any") String proxyPath) {
-
-        pathHelper.setUri(proxyPath);
+    public Uni<Response> proxyBackendGetData(
+        @Context HttpServerRequest request,
+        @Context HttpHeaders headers) {
 
-        return proxyClient.callBackendGet().map(this::propagateHeaders);
+        return proxy(HttpMethod.GET, request, headers);
     }
 
     /**
@@ -54,11 +77,11 @@ public class ProxyApi {
     @POST
     @Produces(MediaType.WILDCARD)
     @Consumes(MediaType.WILDCARD)
-    public Uni<Response> proxyBackendPostData(@PathParam("any") String proxyPath, String payload) {
+    public Uni<Response> proxyBackendPostData(
+        @Context HttpServerRequest request,
+        @Context HttpHeaders headers) {
 
-        pathHelper.setUri(proxyPath);
-
-        return proxyClient.callBackendPost(payload).map(this::propagateHeaders);
+        return proxy(HttpMethod.POST, request, headers);
     }
 
     /**
@@ -68,11 +91,11 @@ public class ProxyApi {
     @PUT
     @Produces(MediaType.WILDCARD)
     @Consumes(MediaType.WILDCARD)
-    public Uni<Response> proxyBackendPutData(@PathParam("any") String proxyPath, String payload) {
-
-        pathHelper.setUri(proxyPath);
+    public Uni<Response> proxyBackendPutData(
+        @Context HttpServerRequest request,
+        @Context HttpHeaders headers) {
 
-        return proxyClient.callBackendPut(payload).map(this::propagateHeaders);
+        return proxy(HttpMethod.PUT, request, headers);
     }
 
     /**
@@ -82,11 +105,11 @@ public class ProxyApi {
     @PATCH
     @Produces(MediaType.WILDCARD)
     @Consumes(MediaType.WILDCARD)
-    public Uni<Response> proxyBackendPatchData(@PathParam("any") String proxyPath, String payload) {
+    public Uni<Response> proxyBackendPatchData(
+        @Context HttpServerRequest request,
+        @Context HttpHeaders headers) {
 
-        pathHelper.setUri(proxyPath);
-
-        return proxyClient.callBackendPatch(payload).map(this::propagateHeaders);
+        return proxy(HttpMethod.PATCH, request, headers);
     }
 
     /**
@@ -96,28 +119,79 @@ public class ProxyApi {
     @DELETE
     @Produces(MediaType.WILDCARD)
     @Consumes(MediaType.WILDCARD)
-    public Uni<Response> proxyBackendDeleteData(@PathParam("any") String proxyPath, String payload) {
+    public Uni<Response> proxyBackendDeleteData(
+        @Context HttpServerRequest request,
+        @Context HttpHeaders headers) {
 
-        pathHelper.setUri(proxyPath);
+        return proxy(HttpMethod.DELETE, request, headers);
+    }
 
-        return proxyClient.callBackendDelete(payload).map(this::propagateHeaders);
+    /**
+     * Call backend. Calls with a buffered body are replayed once with a fresh access_token if backend answers
+     * <code>401</code>. Streamed bodies cannot be replayed, so in streaming mode large bodies, or bodies of unknown size,
+     * are sent without replay. <code>GET</code> requests to routes with a cache scope are served through the
+     * response cache, and other requests to such routes invalidate the cached response of their target.
+     */
+    private Uni<Response> proxy(HttpMethod method, HttpServerRequest request, HttpHeaders headers) {
+        return metrics.timed(callBackend(method, request, headers), "proxy.backend.requests",
+            (response, failure) -> statusClass(response, failure), "method", method.name());
+    }
+
+    private Uni<Response> callBackend(HttpMethod method, HttpServerRequest request, HttpHeaders headers) {
+
+        String cacheKey = routingContext.get(AuthRequestFilter.CACHE_KEY_ATTRIBUTE);
+        String sentAuthorization = headers.getHeaderString(headerName);
+
+        // raw path and query are passed on as sent; the normalized path has no dot segments escaping /api
+        BackendTarget target = backendClient.target(routingContext.normalizedPath().substring(API_PREFIX.length()), request.query());
+
+        if (target.backend().route().cache() == null) {
+            return send(method, request, headers, target, cacheKey, sentAuthorization);
+        }
+        String subject = routingContext.get(AuthRequestFilter.SUBJECT_ATTRIBUTE);
+        if (HttpMethod.GET.equals(method)) {
+            return responseCache.get(target, headers, subject, etag -> replayService.callWithReplay(cacheKey,
+                sentAuthorization, authorization -> backendClient.get(target, headers, authorization, etag)));
+        }
+        return send(method, request, headers, target, cacheKey, sentAuthorization)
+            .invoke(response -> responseCache.invalidate(target, subject));
+    }
+
+    private Uni<Response> send(
+        HttpMethod method,
+        HttpServerRequest request,
+        HttpHeaders headers,
+        BackendTarget target,
+        String cacheKey,
+        String sentAuthorization) {
+
+        if (streamingEnabled && !backendClient.replayable(headers)) {
+            return backendClient.stream(method, target, headers, request);
+        }
+        return readBody(method, request)
+            .chain(body -> replayService.callWithReplay(cacheKey, sentAuthorization,
+                authorization -> backendClient.call(method, target, headers, body, authorization)));
+    }
+
+    /**
+     * Status class (e.g. <code>2xx</code>) of a backend call, used as metrics outcome. Paths are not used
+     * as tags, as they are unbounded.
+     */
+    private String statusClass(Response response, Throwable failure) {
+        if (failure instanceof ProxyClientException e) {
+            return e.getStatusCode() / 100 + "xx";
+        }
+        return response == null ? ProxyMetrics.FAILURE : response.getStatus() / 100 + "xx";
     }
 
     /**
-     * Grab headers from original client response and add to new response unless blacklisted.
+     * Read the full request body. GET requests are not expected to carry a body.
      */
-    private Response propagateHeaders(Response originalResponse) {
-
-        Response.ResponseBuilder responseBuilder = Response
-            .status(originalResponse.getStatus())
-            .entity(originalResponse.getEntity());
-
-        originalResponse.getHeaders().keySet().forEach(key -> {
-            if (!HEADER_PROPAGATION_BLACKLIST.contains(key.toLowerCase())) {
-                responseBuilder.header(key, originalResponse.getHeaderString(key));
-            }
-        });
-        return responseBuilder.build();
-    }    
+    private Uni<Buffer> readBody(HttpMethod method, HttpServerRequest request) {
+        if (HttpMethod.GET.equals(method)) {
+            return Uni.createFrom().nullItem();
+        }
+        return Uni.createFrom().completionStage(request.body().toCompletionStage());
+    }
     
 }
@@ -0,0 +1,94 @@
+package dk.kofoed.proxy.api;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.ws.rs.core.Cookie;
+import jakarta.ws.rs.core.NewCookie;
+import jakarta.ws.rs.core.NewCookie.SameSite;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * Build session cookies handed to clients when cookie authentication is selected. A cookie holds either a
+ * session ID, or, with the <code>COOKIE</code> cache method, one chunk of a sealed token.
+ */
+@ApplicationScoped
+public class SessionCookies {
+
+    @ConfigProperty(name = "auth.proxy.cookie.name")
+    String cookieName;
+
+    @ConfigProperty(name = "auth.proxy.cookie.domain")
+    String cookieDomain;
+
+    @ConfigProperty(name = "auth.proxy.cookie.samesite")
+    SameSite sameSite;
+
+    @ConfigProperty(name = "auth.proxy.cache.cookie.max.chunks")
+    int maxChunks;
+
+    public NewCookie build(String sessionId) {
+        return build(cookieName, sessionId);
+    }
+
+    /**
+     * Build cookies holding a sealed token, one per chunk. Chunk cookies beyond the ones used are expired, so
+     * no stale chunks from a larger token are left in the browser.
+     */
+    public List<NewCookie> buildTokenCookies(List<String> chunks) {
+        List<NewCookie> cookies = new ArrayList<>(maxChunks);
+        for (int i = 0; i < maxChunks; i++) {
+            cookies.add(i < chunks.size() ? build(chunkName(i), chunks.get(i)) : expire(chunkName(i)));
+        }
+        return cookies;
+    }
+
+    /**
+     * Read chunks of a sealed token from request cookies, in order. Stops at the first missing chunk.
+     */
+    public List<String> readTokenChunks(Map<String, Cookie> cookies) {
+        List<String> chunks = new ArrayList<>();
+        for (int i = 0; i < maxChunks; i++) {
+            Cookie cookie = cookies.get(chunkName(i));
+            if (cookie == null || cookie.getValue().isEmpty()) {
+                break;
+            }
+            chunks.add(cookie.getValue());
+        }
+        return chunks;
+    }
+
+    private String chunkName(int index) {
+        return index == 0 ? cookieName : cookieName + "_" + index;
+    }
+
+    private NewCookie expire(String name) {
+        return new NewCookie.Builder(name)
+            .domain(cookieDomain)
+            .path("/")
+            .httpOnly(true)
+            .secure(true)
+            .sameSite(sameSite)
+            .maxAge(0)
+            .value("")
+            .build();
+    }
+
+    private NewCookie build(String name, String value) {
+        return new NewCookie.Builder(name)
+            .domain(cookieDomain)
+            .path("/")
+            .httpOnly(true)
+            .secure(true)
+            .sameSite(sameSite)
+            .expiry(new Date(System.currentTimeMillis() + Duration.ofDays(1).toMillis()))
+            .maxAge(86400)
+            .value(value)
+            .build();
+    }
+
+}
@@ -0,0 +1,114 @@
+package dk.kofoed.proxy.client;
+
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+
+import io.smallrye.mutiny.Uni;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.RequestOptions;
+import io.vertx.mutiny.core.http.HttpClient;
+import io.vertx.mutiny.core.http.HttpClientRequest;
+
+import dk.kofoed.proxy.domain.BackendRoute;
+
+/**
+ * Backend of a single route, with its own connection pool. The base URL is parsed once, when the route is
+ * loaded, so requests only need their target (path and query) built.
+ */
+public final class Backend {
+
+    private final BackendRoute route;
+
+    private final HttpClient httpClient;
+
+    private final long readTimeout;
+
+    private final PoolMetrics metrics;
+
+    private final String host;
+
+    private final int port;
+
+    private final boolean ssl;
+
+    private final String basePath;
+
+    Backend(BackendRoute route, HttpClient httpClient, long readTimeout, PoolMetrics metrics) {
+        URI baseUri = URI.create(route.url());
+        this.route = route;
+        this.httpClient = httpClient;
+        this.readTimeout = readTimeout;
+        this.metrics = metrics;
+        this.ssl = "https".equalsIgnoreCase(baseUri.getScheme());
+        this.host = baseUri.getHost();
+        this.port = baseUri.getPort() > 0 ? baseUri.getPort() : (ssl ? 443 : 80);
+        String path = baseUri.getRawPath() == null ? "" : baseUri.getRawPath();
+        this.basePath = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+
+    public BackendRoute route() {
+        return route;
+    }
+
+    /**
+     * Build target (path and query) for a raw path below <code>/api</code> matched by this route, and a raw
+     * query, which may be <code>null</code>. Both are passed on as they were sent, without decoding.
+     */
+    String target(String rawPath, String rawQuery) {
+        String path = basePath + (route.stripPrefix() ? rawPath.substring(prefixLength()) : rawPath);
+        if (path.isEmpty()) {
+            path = "/";
+        }
+        return rawQuery == null ? path : path + "?" + rawQuery;
+    }
+
+    /**
+     * Run an exchange with this backend, once a pooled connection is available. The exchange is handed a release
+     * callback, and counts as using the connection until it has run the callback, i.e. until its response body
+     * has been read or passed on. The callback runs by itself if the exchange fails or is cancelled.
+     */
+    <T> Uni<T> exchange(HttpMethod method, String target, BiFunction<HttpClientRequest, Runnable, Uni<T>> exchange) {
+        RequestOptions options = new RequestOptions()
+            .setMethod(method)
+            .setHost(host)
+            .setPort(port)
+            .setSsl(ssl)
+            .setURI(target)
+            .setIdleTimeout(readTimeout);
+        return Uni.createFrom().deferred(() -> {
+            long waitStart = metrics.waiting();
+            return httpClient.request(options)
+                .onTermination().invoke((request, failure, cancelled) -> metrics.acquired(waitStart, failure == null && !cancelled))
+                .chain(request -> {
+                    AtomicBoolean released = new AtomicBoolean();
+                    Runnable release = () -> {
+                        if (released.compareAndSet(false, true)) {
+                            metrics.released();
+                        }
+                    };
+                    return exchange.apply(request, release)
+                        .onFailure().invoke(release)
+                        .onCancellation().invoke(release);
+                });
+        });
+    }
+
+    long readTimeout() {
+        return readTimeout;
+    }
+
+    void close() {
+        httpClient.closeAndForget();
+    }
+
+    private int prefixLength() {
+        return "/".equals(route.prefix()) ? 0 : route.prefix().length();
+    }
+
+    @Override
+    public String toString() {
+        return route.prefix() + " -> " + route.url();
+    }
+
+}
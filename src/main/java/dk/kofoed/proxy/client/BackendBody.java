@@ -0,0 +1,49 @@
+package dk.kofoed.proxy.client;
+
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClientResponse;
+
+/**
+ * Body of a backend response, passed on to the client as it arrives instead of being read into memory. The
+ * backend response is paused until {@link BackendBodyWriter} starts piping it to the client connection.
+ */
+public final class BackendBody {
+
+    private final HttpClientResponse response;
+
+    private final Runnable release;
+
+    private final Context context;
+
+    BackendBody(HttpClientResponse response, Runnable release) {
+        this.response = response;
+        this.release = release;
+        this.context = Vertx.currentContext();
+        // free the connection if the backend fails before the body is piped
+        response.pause().exceptionHandler(failure -> release.run());
+    }
+
+    HttpClientResponse response() {
+        return response;
+    }
+
+    /**
+     * Run action on the Vert.x context of the backend response, which flow control calls must be made from.
+     */
+    void onContext(Runnable action) {
+        if (context == null || Vertx.currentContext() == context) {
+            action.run();
+        } else {
+            context.runOnContext(ignored -> action.run());
+        }
+    }
+
+    /**
+     * Mark the connection to the backend as no longer used by this call. Safe to call more than once.
+     */
+    void release() {
+        release.run();
+    }
+
+}
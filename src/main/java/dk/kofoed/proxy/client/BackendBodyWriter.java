@@ -0,0 +1,130 @@
+package dk.kofoed.proxy.client;
+
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.MultivaluedMap;
+import jakarta.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import io.vertx.core.Context;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpServerResponse;
+import org.jboss.resteasy.reactive.server.core.ResteasyReactiveRequestContext;
+import org.jboss.resteasy.reactive.server.spi.ResteasyReactiveResourceInfo;
+import org.jboss.resteasy.reactive.server.spi.ServerMessageBodyWriter;
+import org.jboss.resteasy.reactive.server.spi.ServerRequestContext;
+
+/**
+ * Pipe a {@link BackendBody} to the client connection. Reading from the backend is paused while the client
+ * connection cannot keep up, so at most a write queue of data is held per call. If the client goes away, the
+ * backend request is reset rather than read to the end. Chunks are passed on as the buffers they arrived in.
+ */
+@Provider
+@Produces(MediaType.WILDCARD)
+public class BackendBodyWriter implements ServerMessageBodyWriter<BackendBody> {
+
+    /**
+     * Chunks read ahead of the output stream before the backend is paused, when the body is written by
+     * {@link #writeTo}.
+     */
+    private static final int MAX_QUEUED_CHUNKS = 16;
+
+    private static final Object END = new Object();
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, ResteasyReactiveResourceInfo target, MediaType mediaType) {
+        return BackendBody.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public void writeResponse(BackendBody body, Type genericType, ServerRequestContext context) {
+        ResteasyReactiveRequestContext requestContext = (ResteasyReactiveRequestContext) context;
+        HttpServerResponse response = context.serverResponse().unwrap(HttpServerResponse.class);
+        HttpClientResponse backend = body.response();
+        requestContext.suspend();
+        response.setChunked(true);
+        context.serverResponse().addCloseHandler(() -> backend.request().reset());
+        backend.pipe()
+            .endOnFailure(false)
+            .to(response)
+            .onComplete(result -> {
+                body.release();
+                if (result.succeeded()) {
+                    requestContext.resume();
+                } else {
+                    // the client must not take a cut-off body for a complete one
+                    response.reset();
+                    requestContext.resume(result.cause());
+                }
+            });
+    }
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return BackendBody.class.isAssignableFrom(type);
+    }
+
+    /**
+     * Copy the body to an output stream. Used instead of {@link #writeResponse} when the body is written through
+     * writer interceptors or an entity stream set by a filter. Blocks until the body has been copied, so it must
+     * run on a worker thread; <code>BackendClient</code> refuses to start with streaming and writer interceptors
+     * combined, as proxied calls complete on the event loop.
+     */
+    @Override
+    public void writeTo(
+        BackendBody body,
+        Class<?> type,
+        Type genericType,
+        Annotation[] annotations,
+        MediaType mediaType,
+        MultivaluedMap<String, Object> httpHeaders,
+        OutputStream entityStream) throws IOException {
+
+        if (Context.isOnEventLoopThread()) {
+            body.onContext(() -> body.response().request().reset());
+            body.release();
+            throw new IllegalStateException("Streamed backend body cannot be copied to an output stream on the event loop");
+        }
+        HttpClientResponse backend = body.response();
+        BlockingQueue<Object> chunks = new LinkedBlockingQueue<>();
+        body.onContext(() -> {
+            backend.handler(chunk -> {
+                chunks.add(chunk);
+                if (chunks.size() >= MAX_QUEUED_CHUNKS) {
+                    backend.pause();
+                }
+            });
+            backend.exceptionHandler(chunks::add);
+            backend.endHandler(ignored -> chunks.add(END));
+            backend.resume();
+        });
+        try {
+            for (Object next = chunks.take(); next != END; next = chunks.take()) {
+                if (next instanceof Throwable failure) {
+                    throw new IOException("Backend response failed", failure);
+                }
+                entityStream.write(((Buffer) next).getBytes());
+                if (chunks.isEmpty()) {
+                    body.onContext(backend::resume);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            body.onContext(() -> backend.request().reset());
+            throw new InterruptedIOException("Interrupted while copying backend response");
+        } catch (IOException e) {
+            body.onContext(() -> backend.request().reset());
+            throw e;
+        } finally {
+            body.release();
+        }
+    }
+
+}
@@ -0,0 +1,261 @@
+package dk.kofoed.proxy.client;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Any;
+import jakarta.enterprise.inject.Instance;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.Response.Status;
+import jakarta.ws.rs.ext.WriterInterceptor;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Function;
+
+import io.quarkus.runtime.Startup;
+import io.smallrye.mutiny.Uni;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.mutiny.core.buffer.Buffer;
+import io.vertx.mutiny.core.http.HttpClientRequest;
+import io.vertx.mutiny.core.http.HttpClientResponse;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kofoed.proxy.exception.ProxyClientException;
+import dk.kofoed.proxy.service.LogSampler;
+import dk.kofoed.proxy.service.LogSampling;
+
+/**
+ * Client for proxied backend calls. Each call is sent to the backend routed to by {@link BackendRouter}, with a
+ * target built from the raw path and query of the inbound request, so no URI is parsed per request. Request
+ * bodies are either piped directly from the inbound Vert.x request to the backend request (streaming mode),
+ * or sent from a buffer so the call can be replayed. In streaming mode, successful response bodies are piped
+ * to the client as a {@link BackendBody}; error bodies, and bodies for the response cache, are read into Vert.x
+ * buffers. Payloads are never decoded into strings, and any content type is passed through untouched.
+ */
+@Startup
+@ApplicationScoped
+public class BackendClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(BackendClient.class);
+
+    private static final List<String> CONTENT_HEADERS = List.of(
+        HttpHeaders.CONTENT_TYPE,
+        HttpHeaders.CONTENT_LENGTH,
+        HttpHeaders.CONTENT_ENCODING,
+        HttpHeaders.ACCEPT
+    );
+
+    @ConfigProperty(name = "auth.proxy.backend.streaming.enabled")
+    boolean streamingEnabled;
+
+    @ConfigProperty(name = "auth.proxy.backend.streaming.buffer.size")
+    int maxInFlightBytes;
+
+    @ConfigProperty(name = "auth.proxy.backend.streaming.response.max.size")
+    int maxResponseBytes;
+
+    @ConfigProperty(name = "auth.proxy.backend.replay.max.body.size")
+    long maxReplayBytes;
+
+    @ConfigProperty(name = "auth.proxy.header.name")
+    String headerName;
+
+    @Inject
+    BackendRouter router;
+
+    @Inject
+    LogSampling logSampling;
+
+    @Inject
+    HeaderPolicy headerPolicy;
+
+    @Inject
+    @Any
+    Instance<WriterInterceptor> writerInterceptors;
+
+    private LogSampler requestLog;
+
+    /**
+     * Route a raw inbound path (below <code>/api</code>) and query to a backend and target. The path must be
+     * empty or start with <code>/</code>, and the query may be <code>null</code>. Both are passed on as they
+     * were sent, without decoding.
+     */
+    public BackendTarget target(String rawPath, String rawQuery) {
+        Backend backend = router.route(rawPath);
+        return new BackendTarget(backend, backend.target(rawPath, rawQuery));
+    }
+
+    /**
+     * Call backend resource, piping the inbound request body to the backend without materialising it.
+     * Returns a response carrying the forwarded backend headers and the body as a Vert.x buffer.
+     */
+    public Uni<Response> stream(HttpMethod method, BackendTarget target, HttpHeaders headers, HttpServerRequest body) {
+        return exchange(method, target, streamingEnabled, request -> {
+            copyHeaders(request, headers, null);
+            if (!hasBody(headers)) {
+                return request.send();
+            }
+            if (headers.getHeaderString(HttpHeaders.CONTENT_LENGTH) == null) {
+                request.setChunked(true);
+            }
+            request.setWriteQueueMaxSize(maxInFlightBytes);
+            return request.send(io.vertx.mutiny.core.http.HttpServerRequest.newInstance(body));
+        });
+    }
+
+    /**
+     * Call backend resource with an already buffered body, which may be <code>null</code>. Since the body is
+     * kept, the same call can be repeated. If <code>authorization</code> is set, it replaces the incoming
+     * value of the backend auth header.
+     */
+    public Uni<Response> call(
+        HttpMethod method,
+        BackendTarget target,
+        HttpHeaders headers,
+        io.vertx.core.buffer.Buffer body,
+        String authorization) {
+
+        return exchange(method, target, streamingEnabled, request -> {
+            copyHeaders(request, headers, authorization);
+            return body == null ? request.send() : request.send(Buffer.newInstance(body));
+        });
+    }
+
+    /**
+     * Call backend resource with a <code>GET</code> request, made conditional on an entity tag if
+     * <code>ifNoneMatch</code> is set, so the backend can answer <code>304 Not Modified</code>. If
+     * <code>authorization</code> is set, it replaces the incoming value of the backend auth header. The response
+     * body is always read into a buffer, so it can be cached.
+     */
+    public Uni<Response> get(BackendTarget target, HttpHeaders headers, String authorization, String ifNoneMatch) {
+        return exchange(HttpMethod.GET, target, false, request -> {
+            copyHeaders(request, headers, authorization);
+            if (ifNoneMatch != null) {
+                request.putHeader(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+            }
+            return request.send();
+        });
+    }
+
+    /**
+     * Check if request has a body that can be buffered for replay, i.e. its size is known and within limits.
+     */
+    public boolean replayable(HttpHeaders headers) {
+        if (!hasBody(headers)) {
+            return true;
+        }
+        long contentLength = contentLength(headers.getHeaderString(HttpHeaders.CONTENT_LENGTH));
+        return contentLength >= 0 && contentLength <= maxReplayBytes;
+    }
+
+    /**
+     * Send request to backend, and read its response. If <code>streamBody</code> is set, a successful response
+     * is emitted as soon as its headers arrive, with a body that is piped to the client.
+     */
+    private Uni<Response> exchange(
+        HttpMethod method,
+        BackendTarget target,
+        boolean streamBody,
+        Function<HttpClientRequest, Uni<HttpClientResponse>> send) {
+
+        requestLog.log("Calling backend resource: [{} {}]", method, target);
+        return target.backend().exchange(method, target.uri(),
+            (request, release) -> send.apply(request).chain(response -> toResponse(response, streamBody, release)));
+    }
+
+    private Uni<Response> toResponse(HttpClientResponse response, boolean streamBody, Runnable release) {
+        if (streamBody && response.statusCode() < 400) {
+            Response.ResponseBuilder responseBuilder = Response.status(response.statusCode())
+                .entity(new BackendBody(response.getDelegate(), release));
+            headerPolicy.copyResponseHeaders(response.headers(), responseBuilder);
+            return Uni.createFrom().item(responseBuilder.build());
+        }
+        return readBody(response).onTermination().invoke(release).map(body -> {
+            if (response.statusCode() >= 400) {
+                String payload = body.getDelegate().toString(StandardCharsets.UTF_8);
+                String message = "Error proxied backend ressource. Status: [" + response.statusCode() + "]. Response: [" + payload + "]";
+                throw new ProxyClientException(message, payload, response.statusCode());
+            }
+            Response.ResponseBuilder responseBuilder = Response.status(response.statusCode()).entity(body.getDelegate());
+            headerPolicy.copyResponseHeaders(response.headers(), responseBuilder);
+            return responseBuilder.build();
+        });
+    }
+
+    /**
+     * Collect response body into a single buffer, pre-sized from <code>Content-Length</code> when present.
+     * Bodies larger than the configured maximum are rejected instead of growing the heap unbounded.
+     */
+    private Uni<Buffer> readBody(HttpClientResponse response) {
+        long contentLength = contentLength(response.getHeader(HttpHeaders.CONTENT_LENGTH));
+        int initialSize = contentLength < 0 ? 0 : (int) Math.min(contentLength, maxResponseBytes);
+        return response.toMulti()
+            .collect()
+            .in(() -> Buffer.buffer(initialSize), (body, chunk) -> {
+                if (body.length() + chunk.length() > maxResponseBytes) {
+                    throw new ProxyClientException("Backend response exceeds [" + maxResponseBytes + "] bytes",
+                        Status.BAD_GATEWAY.getStatusCode());
+                }
+                body.appendBuffer(chunk);
+            });
+    }
+
+    private void copyHeaders(HttpClientRequest request, HttpHeaders headers, String authorization) {
+        headerPolicy.copyRequestHeaders(headers, (name, values) -> request.putHeader(name, values));
+        copyHeaders(CONTENT_HEADERS, headers, request);
+        if (authorization != null) {
+            request.putHeader(headerName, authorization);
+        }
+    }
+
+    private void copyHeaders(List<String> names, HttpHeaders headers, HttpClientRequest request) {
+        for (String name : names) {
+            List<String> values = headers.getRequestHeader(name);
+            if (values != null && !values.isEmpty()) {
+                request.putHeader(name, values);
+            }
+        }
+    }
+
+    /**
+     * Parse <code>Content-Length</code> header value. Returns <code>-1</code> (unknown length) if the header is
+     * missing or malformed, so a bad value from a client or backend never fails the call by itself.
+     */
+    private static long contentLength(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            long length = Long.parseLong(value.trim());
+            return length < 0 ? -1 : length;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private boolean hasBody(HttpHeaders headers) {
+        String contentLength = headers.getHeaderString(HttpHeaders.CONTENT_LENGTH);
+        if (contentLength != null) {
+            return !"0".equals(contentLength.trim());
+        }
+        return headers.getHeaderString("Transfer-Encoding") != null;
+    }
+
+    /**
+     * Fail startup if streamed response bodies would have to be written through writer interceptors: that needs a
+     * blocking copy, and proxied calls complete on the event loop.
+     */
+    @PostConstruct
+    void init() {
+        this.requestLog = logSampling.sampler(logger);
+        if (streamingEnabled && !writerInterceptors.isUnsatisfied()) {
+            List<String> names = writerInterceptors.stream().map(interceptor -> interceptor.getClass().getName()).toList();
+            throw new IllegalStateException("BACKEND_STREAMING_ENABLED cannot be combined with writer interceptors " + names);
+        }
+    }
+
+}
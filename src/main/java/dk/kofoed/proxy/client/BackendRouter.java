@@ -0,0 +1,245 @@
+package dk.kofoed.proxy.client;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.scheduler.Scheduled;
+import io.quarkus.scheduler.Scheduled.ConcurrentExecution;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.http.PoolOptions;
+import io.vertx.mutiny.core.Vertx;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kofoed.proxy.domain.BackendRoute;
+import dk.kofoed.proxy.domain.CacheScope;
+import dk.kofoed.proxy.service.ProxyMetrics;
+
+/**
+ * Routes proxied calls to backends by path prefix. Routes are read from a JSON file, if configured, and paths
+ * matched by no route go to <code>BACKEND_HOST_BASE_URL</code>. The file is checked for changes periodically
+ * and swapped in without a restart: unchanged routes keep their connection pool, and pools of removed or changed
+ * routes are closed once calls in flight have had time to finish. A file that cannot be loaded at startup fails
+ * startup; one that cannot be reloaded is ignored, and the current routes are kept.
+ */
+@ApplicationScoped
+public class BackendRouter {
+
+    private static final Logger logger = LoggerFactory.getLogger(BackendRouter.class);
+
+    private static final long CLOSE_GRACE_MILLIS = 5000;
+
+    @ConfigProperty(name = "auth.proxy.backend.base.url")
+    String fallbackUrl;
+
+    @ConfigProperty(name = "auth.proxy.backend.cache.scope")
+    Optional<CacheScope> fallbackCacheScope;
+
+    @ConfigProperty(name = "auth.proxy.backend.routes.file")
+    Optional<String> routesFile;
+
+    @ConfigProperty(name = "auth.proxy.backend.connect.timeout")
+    int connectTimeout;
+
+    @ConfigProperty(name = "auth.proxy.backend.read.timeout")
+    long readTimeout;
+
+    @ConfigProperty(name = "auth.proxy.backend.pool.max.connections")
+    int maxConnections;
+
+    @ConfigProperty(name = "auth.proxy.backend.pool.max.wait.queue")
+    int maxWaitQueue;
+
+    @ConfigProperty(name = "auth.proxy.backend.pool.keep.alive.seconds")
+    int keepAliveSeconds;
+
+    @ConfigProperty(name = "auth.proxy.backend.pool.cleaner.period")
+    int cleanerPeriod;
+
+    @ConfigProperty(name = "auth.proxy.backend.pipelining.limit")
+    int pipeliningLimit;
+
+    @ConfigProperty(name = "auth.proxy.backend.http2.enabled")
+    boolean http2;
+
+    @ConfigProperty(name = "auth.proxy.backend.http2.max.connections")
+    int http2MaxConnections;
+
+    @ConfigProperty(name = "auth.proxy.backend.http2.multiplexing.limit")
+    int http2MultiplexingLimit;
+
+    @Inject
+    Vertx vertx;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @Inject
+    ProxyMetrics metrics;
+
+    private final Map<String, PoolMetrics> poolMetrics = new ConcurrentHashMap<>();
+
+    private volatile RouteTable routes;
+
+    /**
+     * Modification time of the routes file last loaded. Written at startup and by scheduled reloads, which may run
+     * on different threads.
+     */
+    private volatile long loadedModified;
+
+    /**
+     * Find backend for a raw path below <code>/api</code>.
+     */
+    public Backend route(String rawPath) {
+        return routes.match(rawPath);
+    }
+
+    @Scheduled(every = "${auth.proxy.backend.routes.reload.interval}", concurrentExecution = ConcurrentExecution.SKIP)
+    void reload() {
+        if (routesFile.isEmpty()) {
+            return;
+        }
+        try {
+            Path file = Path.of(routesFile.get());
+            if (Files.getLastModifiedTime(file).toMillis() != loadedModified) {
+                load(file);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Could not reload backend routes from [{}] - keeping current routes. Message: [{}]",
+                routesFile.get(), e.getMessage());
+        }
+    }
+
+    private void load(Path file) throws IOException {
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        List<BackendRoute> config = objectMapper.readValue(file.toFile(), new TypeReference<List<BackendRoute>>() { })
+            .stream()
+            .map(this::validate)
+            .toList();
+        Set<String> prefixes = new HashSet<>();
+        for (BackendRoute route : config) {
+            if (!prefixes.add(route.prefix())) {
+                throw new IllegalArgumentException("Duplicate backend route prefix [" + route.prefix() + "]");
+            }
+        }
+        apply(config);
+        loadedModified = modified;
+    }
+
+    /**
+     * Build and swap in a new route table, reusing backends of unchanged routes.
+     */
+    private void apply(List<BackendRoute> config) {
+        RouteTable current = routes;
+        Map<BackendRoute, Backend> existing = new HashMap<>();
+        if (current != null) {
+            current.backends().forEach(backend -> existing.put(backend.route(), backend));
+        }
+
+        List<Backend> backends = new ArrayList<>();
+        for (BackendRoute route : config) {
+            backends.add(existing.containsKey(route) ? existing.get(route) : create(route));
+        }
+        Backend fallback = null;
+        if (config.stream().noneMatch(route -> "/".equals(route.prefix()))) {
+            BackendRoute fallbackRoute = BackendRoute.fallback(fallbackUrl, fallbackCacheScope.orElse(null));
+            fallback = existing.containsKey(fallbackRoute) ? existing.get(fallbackRoute) : create(fallbackRoute);
+        }
+
+        RouteTable table = RouteTable.of(fallback, backends);
+        this.routes = table;
+        logger.info("Loaded backend routes: {}", table.backends());
+
+        if (current != null) {
+            current.backends().stream()
+                .filter(backend -> !table.backends().contains(backend))
+                .forEach(backend -> vertx.setTimer(backend.readTimeout() + CLOSE_GRACE_MILLIS, id -> backend.close()));
+        }
+    }
+
+    private BackendRoute validate(BackendRoute route) {
+        if (route.prefix() == null || !route.prefix().startsWith("/")) {
+            throw new IllegalArgumentException("Backend route prefix must start with '/', was [" + route.prefix() + "]");
+        }
+        URI url = route.url() == null ? null : URI.create(route.url());
+        if (url == null || url.getHost() == null || !("http".equals(url.getScheme()) || "https".equals(url.getScheme()))) {
+            throw new IllegalArgumentException("Backend route URL must be an absolute HTTP(S) URL, was [" + route.url() + "]");
+        }
+        String prefix = route.prefix().length() > 1 && route.prefix().endsWith("/")
+            ? route.prefix().substring(0, route.prefix().length() - 1)
+            : route.prefix();
+        return new BackendRoute(prefix, route.url(), route.stripPrefix(), route.maxConnections(), route.http2(),
+            route.keepAliveSeconds(), route.connectTimeout(), route.readTimeout(), route.cache());
+    }
+
+    /**
+     * Create backend with its own connection pool. Settings not given by the route use the proxy defaults.
+     * Unused connections are evicted after the keep-alive timeout, checked every cleaner period.
+     */
+    private Backend create(BackendRoute route) {
+        int routeKeepAlive = route.keepAliveSeconds() != null ? route.keepAliveSeconds() : keepAliveSeconds;
+        boolean routeHttp2 = route.http2() != null ? route.http2() : http2;
+        HttpClientOptions options = new HttpClientOptions()
+            .setConnectTimeout(route.connectTimeout() != null ? route.connectTimeout() : connectTimeout)
+            .setKeepAlive(true)
+            .setKeepAliveTimeout(routeKeepAlive)
+            .setPipelining(pipeliningLimit > 0);
+        if (pipeliningLimit > 0) {
+            options.setPipeliningLimit(pipeliningLimit);
+        }
+        if (routeHttp2) {
+            // HTTP/2 is negotiated with ALPN over TLS, and used with prior knowledge (h2c) over plain HTTP
+            options.setProtocolVersion(HttpVersion.HTTP_2)
+                .setUseAlpn(true)
+                .setHttp2ClearTextUpgrade(false)
+                .setHttp2KeepAliveTimeout(routeKeepAlive)
+                .setHttp2MultiplexingLimit(http2MultiplexingLimit);
+        }
+        PoolOptions poolOptions = new PoolOptions()
+            .setHttp1MaxSize(route.maxConnections() != null ? route.maxConnections() : maxConnections)
+            .setHttp2MaxSize(route.maxConnections() != null ? route.maxConnections() : http2MaxConnections)
+            .setMaxWaitQueueSize(maxWaitQueue)
+            .setCleanerPeriod(cleanerPeriod);
+        long routeReadTimeout = route.readTimeout() != null ? route.readTimeout() : readTimeout;
+        PoolMetrics routeMetrics = poolMetrics.computeIfAbsent(route.prefix(), prefix -> new PoolMetrics(metrics.registry(), prefix));
+        return new Backend(route, vertx.createHttpClient(options, poolOptions), routeReadTimeout, routeMetrics);
+    }
+
+    @PostConstruct
+    void init() {
+        if (routesFile.isEmpty()) {
+            apply(List.of());
+            return;
+        }
+        try {
+            load(Path.of(routesFile.get()));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not load backend routes from " + routesFile.get(), e);
+        }
+    }
+
+    @PreDestroy
+    void close() {
+        routes.backends().forEach(Backend::close);
+    }
+
+}
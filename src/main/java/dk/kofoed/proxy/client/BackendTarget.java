@@ -0,0 +1,13 @@
+package dk.kofoed.proxy.client;
+
+/**
+ * Backend and target (path and query) of a proxied call, resolved once per request and reused for replays.
+ */
+public record BackendTarget(Backend backend, String uri) {
+
+    @Override
+    public String toString() {
+        return backend.route().url() + " " + uri;
+    }
+
+}
@@ -0,0 +1,163 @@
+package dk.kofoed.proxy.client;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+
+import io.vertx.mutiny.core.MultiMap;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * Rules for which headers are forwarded between client and backend. Requests carry the headers listed in
+ * <code>BACKEND_HEADER_PROPAGATION</code>; responses carry all backend headers except denied ones. Hop-by-hop
+ * headers (RFC 7230, section 6.1) and headers named in a <code>Connection</code> header are never forwarded.
+ * Name lists are compiled once, so matching is case-insensitive without lower-casing each header, and
+ * multi-valued headers (e.g. <code>Set-Cookie</code>) are copied value by value, never joined.
+ */
+@ApplicationScoped
+public class HeaderPolicy {
+
+    private static final List<String> HOP_BY_HOP = List.of(
+        "Connection",
+        "Keep-Alive",
+        "Proxy-Authenticate",
+        "Proxy-Authorization",
+        "Proxy-Connection",
+        "TE",
+        "Trailer",
+        "Transfer-Encoding",
+        "Upgrade"
+    );
+
+    /**
+     * Response headers set by the proxy itself, as the body may be re-encoded.
+     */
+    private static final List<String> RECOMPUTED = List.of(HttpHeaders.CONTENT_LENGTH);
+
+    @ConfigProperty(name = "org.eclipse.microprofile.rest.client.propagateHeaders")
+    List<String> propagatedHeaders;
+
+    @ConfigProperty(name = "auth.proxy.backend.response.headers.deny")
+    Optional<List<String>> deniedResponseHeaders;
+
+    private String[] requestHeaders;
+
+    private NameMatcher responseDenied;
+
+    /**
+     * Pass the forwarded request headers with all their values to <code>target</code>.
+     */
+    public void copyRequestHeaders(HttpHeaders headers, BiConsumer<String, List<String>> target) {
+        String connection = headers.getHeaderString(HttpHeaders.CONNECTION);
+        for (String name : requestHeaders) {
+            List<String> values = headers.getRequestHeader(name);
+            if (values != null && !values.isEmpty() && !connectionListed(connection, name)) {
+                target.accept(name, values);
+            }
+        }
+    }
+
+    /**
+     * Copy forwarded headers of a Vert.x backend response to a response being built.
+     */
+    public void copyResponseHeaders(MultiMap headers, Response.ResponseBuilder target) {
+        String connection = headers.get(HttpHeaders.CONNECTION);
+        for (String name : headers.names()) {
+            if (forwardResponseHeader(name, connection)) {
+                for (String value : headers.getAll(name)) {
+                    target.header(name, value);
+                }
+            }
+        }
+    }
+
+    private boolean forwardResponseHeader(String name, String connection) {
+        return !responseDenied.matches(name) && !connectionListed(connection, name);
+    }
+
+    /**
+     * Check if header is named in a <code>Connection</code> header value, without splitting it.
+     */
+    static boolean connectionListed(String connection, String name) {
+        if (connection == null) {
+            return false;
+        }
+        int start = 0;
+        while (start < connection.length()) {
+            int end = connection.indexOf(',', start);
+            if (end < 0) {
+                end = connection.length();
+            }
+            int tokenStart = start;
+            int tokenEnd = end;
+            while (tokenStart < tokenEnd && Character.isWhitespace(connection.charAt(tokenStart))) {
+                tokenStart++;
+            }
+            while (tokenEnd > tokenStart && Character.isWhitespace(connection.charAt(tokenEnd - 1))) {
+                tokenEnd--;
+            }
+            if (tokenEnd - tokenStart == name.length() && connection.regionMatches(true, tokenStart, name, 0, name.length())) {
+                return true;
+            }
+            start = end + 1;
+        }
+        return false;
+    }
+
+    @PostConstruct
+    void init() {
+        NameMatcher hopByHop = NameMatcher.of(HOP_BY_HOP);
+        this.requestHeaders = propagatedHeaders.stream()
+            .map(String::trim)
+            .filter(name -> !name.isEmpty() && !hopByHop.matches(name))
+            .toArray(String[]::new);
+
+        List<String> denied = new ArrayList<>(HOP_BY_HOP);
+        denied.addAll(RECOMPUTED);
+        deniedResponseHeaders.ifPresent(names -> names.stream().map(String::trim).forEach(denied::add));
+        this.responseDenied = NameMatcher.of(denied);
+    }
+
+    /**
+     * Case-insensitive set of header names. Names are bucketed by length, so a lookup compares a header against
+     * the few names of the same length and allocates nothing.
+     */
+    static final class NameMatcher {
+
+        private final String[][] byLength;
+
+        private NameMatcher(String[][] byLength) {
+            this.byLength = byLength;
+        }
+
+        static NameMatcher of(Collection<String> names) {
+            int maxLength = names.stream().mapToInt(String::length).max().orElse(0);
+            List<List<String>> buckets = new ArrayList<>();
+            for (int i = 0; i <= maxLength; i++) {
+                buckets.add(new ArrayList<>());
+            }
+            names.forEach(name -> buckets.get(name.length()).add(name));
+            return new NameMatcher(buckets.stream().map(bucket -> bucket.toArray(String[]::new)).toArray(String[][]::new));
+        }
+
+        boolean matches(String name) {
+            if (name.length() >= byLength.length) {
+                return false;
+            }
+            for (String candidate : byLength[name.length()]) {
+                if (candidate.equalsIgnoreCase(name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+    }
+
+}
@@ -25,13 +25,13 @@ public interface OidcClient {
     @GET
     @Path("/.well-known/openid-configuration")
     @Produces(MediaType.APPLICATION_JSON)
-    public OpenIdConfigurationResponse getOpenIdConfiguration();
+    public Uni<OpenIdConfigurationResponse> getOpenIdConfiguration();
     
     @POST
     @Path("/{tokenEndpoint}")
     @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
     @Produces(MediaType.APPLICATION_JSON)
-    public AccessTokenResponse getAccessToken(
+    public Uni<AccessTokenResponse> getAccessToken(
         @PathParam("tokenEndpoint") @Encoded String tokenEndpoint,
         @FormParam("grant_type") String grantType,
         @FormParam("client_id") String clientId,
@@ -53,6 +53,11 @@ public interface OidcClient {
         @FormParam("refresh_token") String refreshToken
     );
 
+    @GET
+    @Path("/{jwksEndpoint}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Uni<String> getJsonWebKeySet(@PathParam("jwksEndpoint") @Encoded String jwksEndpoint);
+
     /**
      * Map response error codes to exceptions.
      */
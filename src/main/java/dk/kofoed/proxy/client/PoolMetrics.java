@@ -0,0 +1,56 @@
+package dk.kofoed.proxy.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Connection pool metrics of a route, tagged with the route prefix. Kept per prefix rather than per backend, so
+ * a route keeps its meters when it is reloaded with changed settings.
+ */
+final class PoolMetrics {
+
+    private final AtomicInteger pending;
+
+    private final AtomicInteger inUse;
+
+    private final Timer waitTimer;
+
+    PoolMetrics(MeterRegistry registry, String prefix) {
+        Tags tags = Tags.of("route", prefix);
+        this.pending = registry.gauge("proxy.backend.pool.pending", tags, new AtomicInteger());
+        this.inUse = registry.gauge("proxy.backend.pool.in.use", tags, new AtomicInteger());
+        this.waitTimer = Timer.builder("proxy.backend.pool.wait")
+            .tags(tags)
+            .publishPercentileHistogram()
+            .register(registry);
+    }
+
+    /**
+     * Record that a call waits for a connection. Returns the start time to pass to {@link #acquired}.
+     */
+    long waiting() {
+        pending.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Record that a call no longer waits, because it got a connection (<code>success</code>), failed to get one,
+     * or was cancelled while waiting.
+     */
+    void acquired(long waitStart, boolean success) {
+        pending.decrementAndGet();
+        waitTimer.record(System.nanoTime() - waitStart, TimeUnit.NANOSECONDS);
+        if (success) {
+            inUse.incrementAndGet();
+        }
+    }
+
+    void released() {
+        inUse.decrementAndGet();
+    }
+
+}
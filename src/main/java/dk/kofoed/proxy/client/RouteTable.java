@@ -0,0 +1,85 @@
+package dk.kofoed.proxy.client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable prefix trie of backend routes, keyed by path segment. A path is matched by the route with the
+ * longest prefix, on whole segments only (<code>/orders</code> matches <code>/orders/1</code>, but not
+ * <code>/orders-archive</code>). Paths matched by no route go to the fallback backend.
+ */
+final class RouteTable {
+
+    private final Node root;
+
+    private final List<Backend> backends;
+
+    private RouteTable(Node root, List<Backend> backends) {
+        this.root = root;
+        this.backends = backends;
+    }
+
+    /**
+     * Build table of routes. The fallback may be <code>null</code> if a route has prefix <code>/</code>.
+     */
+    static RouteTable of(Backend fallback, List<Backend> routes) {
+        Node root = new Node();
+        root.backend = fallback;
+        for (Backend backend : routes) {
+            Node node = root;
+            for (String segment : backend.route().prefix().split("/")) {
+                if (!segment.isEmpty()) {
+                    node = node.children.computeIfAbsent(segment, ignored -> new Node());
+                }
+            }
+            node.backend = backend;
+        }
+        List<Backend> backends = new ArrayList<>(routes);
+        if (fallback != null) {
+            backends.add(fallback);
+        }
+        return new RouteTable(root, List.copyOf(backends));
+    }
+
+    /**
+     * Find backend for a raw path below <code>/api</code>, e.g. <code>/orders/1</code>.
+     */
+    Backend match(String path) {
+        Node node = root;
+        Backend match = root.backend;
+        int start = 1;
+        while (!node.children.isEmpty() && start <= path.length()) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            node = node.children.get(path.substring(start, end));
+            if (node == null) {
+                break;
+            }
+            if (node.backend != null) {
+                match = node.backend;
+            }
+            start = end + 1;
+        }
+        return match;
+    }
+
+    /**
+     * All backends of the table, including the fallback.
+     */
+    List<Backend> backends() {
+        return backends;
+    }
+
+    private static final class Node {
+
+        private final Map<String, Node> children = new HashMap<>();
+
+        private Backend backend;
+
+    }
+
+}
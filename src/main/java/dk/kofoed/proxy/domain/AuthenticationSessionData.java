@@ -2,6 +2,5 @@ package dk.kofoed.proxy.domain;
 
 public record AuthenticationSessionData(
     String state,
-    String codeChallenge,
-    String codeVerifier
+    String codeChallenge
 ) {}
@@ -0,0 +1,31 @@
+package dk.kofoed.proxy.domain;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * Route from a path prefix (below <code>/api</code>) to a backend, as read from the route file. Connection
+ * settings left out (<code>null</code>) fall back to the defaults of the proxy. Routes are compared by value
+ * on reload, so unchanged routes keep their connection pool. GET responses are only cached for routes with a
+ * <code>cache</code> scope.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record BackendRoute(
+    String prefix,
+    String url,
+    boolean stripPrefix,
+    Integer maxConnections,
+    Boolean http2,
+    Integer keepAliveSeconds,
+    Integer connectTimeout,
+    Long readTimeout,
+    CacheScope cache
+) {
+
+    /**
+     * Route for all paths not matched by any other route.
+     */
+    public static BackendRoute fallback(String url, CacheScope cache) {
+        return new BackendRoute("/", url, false, null, null, null, null, null, cache);
+    }
+
+}
@@ -0,0 +1,7 @@
+package dk.kofoed.proxy.domain;
+
+public enum CacheMethod {
+    MEMORY,
+    REDIS,
+    COOKIE
+}
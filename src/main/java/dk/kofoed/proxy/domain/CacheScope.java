@@ -0,0 +1,6 @@
+package dk.kofoed.proxy.domain;
+
+public enum CacheScope {
+    PRIVATE,
+    PUBLIC
+}
@@ -0,0 +1,65 @@
+package dk.kofoed.proxy.domain;
+
+import dk.kofoed.proxy.client.model.AccessTokenResponse;
+
+/**
+ * Token cache entry. Expiry times (epoch millis) and the subject (<code>sub</code> claim of the access_token,
+ * <code>null</code> if unknown) are extracted once when the entry is created, so the request path never has to
+ * parse the JWTs again. If the session ID has been rotated,
+ * <code>successor</code> holds the new session ID, and the entry carries a copy of the successor's token so
+ * requests still using the old ID can be served without a second lookup.
+ */
+public record CachedToken(
+    AccessTokenResponse token,
+    String subject,
+    long accessTokenExpiry,
+    long refreshTokenExpiry,
+    String successor
+) {
+
+    public CachedToken(AccessTokenResponse token, String subject, long accessTokenExpiry, long refreshTokenExpiry) {
+        this(token, subject, accessTokenExpiry, refreshTokenExpiry, null);
+    }
+
+    public boolean hasRefreshToken() {
+        return token.refreshToken() != null;
+    }
+
+    /**
+     * Check if access_token is expired, or will expire within <code>gapSeconds</code>.
+     */
+    public boolean accessTokenExpired(long gapSeconds) {
+        return System.currentTimeMillis() > accessTokenExpiry - gapSeconds * 1000;
+    }
+
+    public boolean refreshTokenExpired() {
+        return System.currentTimeMillis() > refreshTokenExpiry;
+    }
+
+    /**
+     * Point in time (epoch millis) after which the entry is of no use: when the refresh_token expires, or
+     * when the access_token expires if no refresh_token was issued.
+     */
+    public long expiry() {
+        return hasRefreshToken() ? refreshTokenExpiry : accessTokenExpiry;
+    }
+
+    public boolean rotated() {
+        return successor != null;
+    }
+
+    /**
+     * Copy of this entry to be left under the previous session ID, pointing at <code>successor</code>.
+     */
+    public CachedToken rotatedTo(String successor) {
+        return new CachedToken(token, subject, accessTokenExpiry, refreshTokenExpiry, successor);
+    }
+
+    /**
+     * Copy of this entry that expires no later than <code>expiry</code> (epoch millis).
+     */
+    public CachedToken cappedTo(long expiry) {
+        return new CachedToken(token, subject, Math.min(accessTokenExpiry, expiry), Math.min(refreshTokenExpiry, expiry), successor);
+    }
+
+}
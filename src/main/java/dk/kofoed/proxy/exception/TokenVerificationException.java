@@ -0,0 +1,9 @@
+package dk.kofoed.proxy.exception;
+
+public class TokenVerificationException extends RuntimeException {
+
+    public TokenVerificationException(String message) {
+        super(message);
+    }
+    
+}
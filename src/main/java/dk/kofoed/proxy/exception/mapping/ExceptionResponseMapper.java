@@ -1,33 +1,32 @@
 package dk.kofoed.proxy.exception.mapping;
 
-import jakarta.inject.Inject;
 import jakarta.ws.rs.ProcessingException;
 import jakarta.ws.rs.core.Response;
-import jakarta.ws.rs.core.UriInfo;
 
 import org.jboss.resteasy.reactive.server.ServerExceptionMapper;
 
 import dk.kofoed.proxy.exception.ProxyClientException;
+import dk.kofoed.proxy.exception.TokenVerificationException;
 
 public class ExceptionResponseMapper {
 
-    @Inject
-    UriInfo uriInfo;
+    /**
+     * Map <code>ProxyClientException</code> to an HTTP response. Backend <code>401</code> responses caused by
+     * an expired access_token have already been replayed with a fresh token at this point, so any status is
+     * passed on to the client as-is.
+     */
+    @ServerExceptionMapper
+    public Response mapException(ProxyClientException e) {
+        return Response.status(e.getStatusCode()).entity(e.getResponseBody()).build();
+    }
 
     /**
-     * Map <code>ProxyClientException</code> to an HTTP response.
+     * Map <code>TokenVerificationException</code> to HTTP response. Tokens that fail signature verification
+     * are never cached, so the client has to log in again.
      */
     @ServerExceptionMapper
-    public Response mapException(ProxyClientException e) throws InterruptedException {
-        // If we receive a 401 from backend calls, it means that we passed a useless access_token. This happens
-        // when we're still trying to refresh the token but OIDC token endpoint reply isn't in yet (async call).
-        // When this occurs, we instruct the client to try again after a small delay:
-        if (e.getStatusCode() == 401) {
-            Thread.sleep(200);
-            return Response.temporaryRedirect(uriInfo.getRequestUri()).build();
-        } else {
-            return Response.status(e.getStatusCode()).entity(e.getResponseBody()).build();
-        }
+    public Response mapException(TokenVerificationException e) {
+        return Response.status(401).build();
     }
 
     /**
@@ -1,34 +1,67 @@
 package dk.kofoed.proxy.filter;
 
+import jakarta.annotation.PostConstruct;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerResponseContext;
 import jakarta.ws.rs.core.Cookie;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.Response.Status;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.time.Duration;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 
+import io.smallrye.mutiny.Uni;
+import io.vertx.ext.web.RoutingContext;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.resteasy.reactive.server.ServerRequestFilter;
+import org.jboss.resteasy.reactive.server.ServerResponseFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.kofoed.proxy.api.SessionCookies;
 import dk.kofoed.proxy.api.model.RedirectDataResponse;
 import dk.kofoed.proxy.client.model.AccessTokenResponse;
 import dk.kofoed.proxy.domain.AuthType;
+import dk.kofoed.proxy.domain.CacheMethod;
+import dk.kofoed.proxy.domain.CachedToken;
 import dk.kofoed.proxy.exception.TokenExpiredException;
 import dk.kofoed.proxy.exception.TokenNotFoundException;
 import dk.kofoed.proxy.service.AuthService;
+import dk.kofoed.proxy.service.LogSampler;
+import dk.kofoed.proxy.service.LogSampling;
+import dk.kofoed.proxy.service.ProxyMetrics;
+import dk.kofoed.proxy.service.Redact;
 import dk.kofoed.proxy.service.TokenCache;
-import dk.kofoed.proxy.service.TokenHelper;
+import dk.kofoed.proxy.service.TokenRefreshScheduler;
+import dk.kofoed.proxy.service.TokenRefreshService;
 
 public class AuthRequestFilter {
 
     private static final Logger logger = LoggerFactory.getLogger(AuthRequestFilter.class);
 
+    /**
+     * Routing context attribute holding the token cache key of an authenticated request.
+     */
+    public static final String CACHE_KEY_ATTRIBUTE = "auth.proxy.cache.key";
+
+    /**
+     * Routing context attribute holding the subject of an authenticated request, if its access_token has one.
+     */
+    public static final String SUBJECT_ATTRIBUTE = "auth.proxy.subject";
+
+    /**
+     * Routing context attribute holding the new session ID, if the client presented a rotated one.
+     */
+    private static final String ROTATED_SESSION_ATTRIBUTE = "auth.proxy.session.rotated";
+
+    /**
+     * Routing context attribute holding cookie values of a refreshed token (<code>COOKIE</code> cache method).
+     */
+    private static final String SEALED_TOKEN_ATTRIBUTE = "auth.proxy.session.sealed";
+
     @ConfigProperty(name = "auth.proxy.type")
     AuthType authType;
 
@@ -41,6 +74,15 @@ public class AuthRequestFilter {
     @ConfigProperty(name = "auth.proxy.cookie.name")
     String cookieName;
 
+    @ConfigProperty(name = "auth.proxy.cache.method")
+    CacheMethod cacheMethod;
+
+    @ConfigProperty(name = "auth.proxy.session.rotation.grace.seconds")
+    long rotationGraceSeconds;
+
+    @Inject
+    RoutingContext routingContext;
+
     @Inject
     AuthService authService;
 
@@ -48,26 +90,50 @@ public class AuthRequestFilter {
     TokenCache tokenCache;
 
     @Inject
-    TokenHelper tokenHelper;
+    TokenRefreshService tokenRefreshService;
+
+    @Inject
+    TokenRefreshScheduler tokenRefreshScheduler;
+
+    @Inject
+    SessionCookies sessionCookies;
+
+    @Inject
+    ProxyMetrics metrics;
+
+    @Inject
+    LogSampling logSampling;
+
+    private LogSampler requestLog;
 
     /**
-     * Check authentication before endpoint url pattern matching. 
+     * Check authentication before endpoint url pattern matching. A <code>null</code> item lets the request
+     * through, any other response is returned to the client.
      */
     @ServerRequestFilter(preMatching = true)
-    public Optional<Response> authFilter(ContainerRequestContext context) {
+    public Uni<Response> authFilter(ContainerRequestContext context) {
 
         String path = context.getUriInfo().getPath();
         
         if (path.equals("/oidc/callback") || path.equals("/oidc/authcode") || path.startsWith("/q/health")) {
             // oidc callback requests should pass this filter without further checks
-            return Optional.empty();
+            return Uni.createFrom().nullItem();
         } 
         
         if (!path.startsWith("/api")) {
-            return badRequest("Auth proxy calls must be prefixed by /api");
+            return Uni.createFrom().item(badRequest("Auth proxy calls must be prefixed by /api"));
         }
         
-        logger.info("Path: [{}]", path);
+        requestLog.log("Path: [{}]", path);
+
+        Uni<Response> result = cacheMethod == CacheMethod.COOKIE ? authenticateSealed(context) : authenticate(context, path);
+        return metrics.timed(result, "proxy.auth.filter", (response, failure) -> outcome(response, failure));
+    }
+
+    /**
+     * Authenticate request from the session ID passed in a header or cookie, depending on authentication type.
+     */
+    private Uni<Response> authenticate(ContainerRequestContext context, String path) {
 
         // check incoming auth code based on configured authentication type
         String authCode = null;
@@ -85,55 +151,145 @@ public class AuthRequestFilter {
         }
 
         if (authCode == null) {
-            logger.info("No auth code found for auth type [{}]. Path = [{}]. Sending 401 with redirect data.", authType, path);
-            return unauth();
-        } else {
-
-            final String cacheKey = authCode;
-            
-            try {
+            logger.debug("No auth code found for auth type [{}]. Path = [{}]. Sending 401 with redirect data.", authType, path);
+            return Uni.createFrom().item(unauth());
+        }
 
-                AccessTokenResponse cachedToken = tokenCache.get(cacheKey);
+        final String cacheKey = authCode;
 
+        return tokenCache.get(cacheKey)
+            .chain(cachedToken -> resolveSession(cacheKey, cachedToken))
+            .map(session -> {
+                CachedToken cachedToken = session.token();
                 // if we have a refresh_token available, check if it is expired. If so, return immediately
-                if (cachedToken.refreshToken() != null) {
-                    if (tokenHelper.tokenExpired(cachedToken.refreshToken(), 0)) {
-                        logger.info("Token found but refresh_token expired. Sending redirect info.");
-                        tokenCache.remove(cacheKey);
-                        return unauth();
-                    }
+                if (cachedToken.hasRefreshToken() && cachedToken.refreshTokenExpired()) {
+                    logger.debug("Token found but refresh_token expired. Session: [{}]. Sending redirect info.",
+                        Redact.secret(session.key()));
+                    // a copy left under a rotated session ID expires on its own, without the session it points at
+                    tokenCache.remove(cachedToken.rotated() ? cacheKey : session.key());
+                    return unauth();
                 }
 
-                checkTokenRefresh(cacheKey);
+                if (!session.key().equals(cacheKey)) {
+                    // client still uses a rotated session ID: hand out the new one, and let the old one expire
+                    routingContext.put(ROTATED_SESSION_ATTRIBUTE, session.key());
+                    tokenCache.expireRotated(cacheKey, cachedToken, rotationGraceSeconds);
+                }
+                routingContext.put(CACHE_KEY_ATTRIBUTE, session.key());
+                putSubject(cachedToken);
+
+                if (cachedToken.rotated()) {
+                    checkSuccessorRefresh(session.key(), cachedToken);
+                } else {
+                    tokenRefreshScheduler.track(session.key(), cachedToken);
+                    checkTokenRefresh(session.key(), cachedToken);
+                }
 
                 context.getHeaders().remove(headerName);
-                context.getHeaders().add(headerName, "Bearer " + cachedToken.accessToken());
-            } catch (TokenNotFoundException e) {
-                logger.warn("No valid token found for authorization code");
+                context.getHeaders().add(headerName, "Bearer " + cachedToken.token().accessToken());
+                return (Response) null;
+            })
+            .onFailure(TokenNotFoundException.class)
+            .recoverWithItem(failure -> {
+                logger.debug("No valid token found for session [{}]", Redact.secret(cacheKey));
                 return unauth();
+            });
+    }
+
+    /**
+     * Metrics outcome of the filter: passed on, or answered with a redirect to the OIDC provider.
+     */
+    private String outcome(Response response, Throwable failure) {
+        if (failure != null) {
+            return ProxyMetrics.FAILURE;
+        }
+        return response == null ? "authenticated" : "unauthenticated";
+    }
+
+    /**
+     * Add cookie with new session ID to responses for clients still using a rotated one, or cookies with the
+     * refreshed token if it is sealed in cookies.
+     */
+    @ServerResponseFilter
+    public void sessionCookieFilter(ContainerResponseContext context) {
+        String rotatedSession = routingContext.get(ROTATED_SESSION_ATTRIBUTE);
+        if (rotatedSession != null) {
+            context.getHeaders().add(HttpHeaders.SET_COOKIE, sessionCookies.build(rotatedSession));
+        }
+        List<String> sealedToken = routingContext.get(SEALED_TOKEN_ATTRIBUTE);
+        if (sealedToken != null) {
+            sessionCookies.buildTokenCookies(sealedToken).forEach(cookie -> context.getHeaders().add(HttpHeaders.SET_COOKIE, cookie));
+        }
+    }
+
+    /**
+     * Authenticate request from a token sealed in cookies (<code>COOKIE</code> cache method), so nothing is
+     * looked up. An access_token about to expire is refreshed before the request is passed on, and the
+     * response carries the refreshed token.
+     */
+    private Uni<Response> authenticateSealed(ContainerRequestContext context) {
+        CachedToken cachedToken = tokenCache.unseal(sessionCookies.readTokenChunks(context.getCookies()));
+        if (cachedToken == null || (cachedToken.hasRefreshToken() && cachedToken.refreshTokenExpired())) {
+            logger.debug("No valid token cookie found. Sending 401 with redirect data.");
+            return Uni.createFrom().item(unauth());
+        }
+
+        putSubject(cachedToken);
+        Uni<AccessTokenResponse> token = Uni.createFrom().item(cachedToken.token());
+        if (cachedToken.accessTokenExpired(10)) {
+            if (!cachedToken.hasRefreshToken()) {
+                return Uni.createFrom().item(unauth());
             }
+            token = tokenRefreshService.refreshUncached(cachedToken.token().refreshToken())
+                .call(refreshed -> tokenCache.seal(refreshed).invoke(chunks -> routingContext.put(SEALED_TOKEN_ATTRIBUTE, chunks)));
+        }
+
+        return token
+            .map(accessToken -> {
+                context.getHeaders().remove(headerName);
+                context.getHeaders().add(headerName, "Bearer " + accessToken.accessToken());
+                return (Response) null;
+            })
+            .onFailure()
+            .recoverWithItem(failure -> {
+                logger.warn("Could not refresh access_token. Message: [{}]", failure.getMessage());
+                return unauth();
+            });
+    }
+
+    private void putSubject(CachedToken cachedToken) {
+        if (cachedToken.subject() != null) {
+            routingContext.put(SUBJECT_ATTRIBUTE, cachedToken.subject());
+        }
+    }
+
+    /**
+     * Find the current session for a cache entry. Entries left behind by a session rotation carry a copy of the
+     * successor's token, which is used as-is unless it has expired; in that case the successor has since been
+     * refreshed (and possibly rotated again), so it is looked up.
+     */
+    private Uni<Session> resolveSession(String cacheKey, CachedToken cachedToken) {
+        if (!cachedToken.rotated()) {
+            return Uni.createFrom().item(new Session(cacheKey, cachedToken));
+        }
+        if (!cachedToken.accessTokenExpired(0)) {
+            return Uni.createFrom().item(new Session(cachedToken.successor(), cachedToken));
         }
-        return Optional.empty();
+        return tokenCache.get(cachedToken.successor())
+            .chain(successorToken -> resolveSession(cachedToken.successor(), successorToken));
     }
 
     /**
      * Check if access_token needs to be refreshed. If it does, make an async call to 
-     * oidc token endpoint using refresh_token.
-     * @throws TokenNotFoundException if cache does not contain any entries for specified key
+     * oidc token endpoint using refresh_token. Concurrent requests for the same session share one refresh.
      */
-    private void checkTokenRefresh(String cacheKey) throws TokenNotFoundException {
+    private void checkTokenRefresh(String cacheKey, CachedToken cachedToken) {
         tokenCache
-            .checkRefresh(cacheKey)
+            .checkRefresh(cachedToken)
             .onFailure(TokenExpiredException.class)
             .recoverWithUni(failure -> {
                 TokenExpiredException e = (TokenExpiredException) failure;
-                return authService.refreshAccessToken(e.getRefreshToken())
-                    .onFailure().retry()
-                    .withBackOff(Duration.ofMillis(50), Duration.ofSeconds(1))
-                    .atMost(5)
-                    .invoke(token -> {
-                        tokenCache.put(cacheKey, token);
-                    });
+                return tokenRefreshService.refresh(cacheKey, e.getRefreshToken());
             }).subscribe().with(
                 token -> {
                     // do not do anything with token here, as it is either being refreshed or already in the cache ...
@@ -146,7 +302,33 @@ public class AuthRequestFilter {
             );
     }
 
-    private Optional<Response> unauth() {
+    /**
+     * Check if the successor of a rotated session needs a refresh, for a request served from the copy left under
+     * the rotated ID. The refresh_token of the copy may already have been used to refresh the successor, so the
+     * successor's current entry is checked instead, and only if the copy's access_token is close to expiry.
+     */
+    private void checkSuccessorRefresh(String successor, CachedToken copy) {
+        if (!copy.accessTokenExpired(10)) {
+            return;
+        }
+        tokenCache.get(successor).subscribe().with(
+            current -> {
+                // a successor that has been rotated again is refreshed by requests using its own successor
+                if (!current.rotated()) {
+                    tokenRefreshScheduler.track(successor, current);
+                    checkTokenRefresh(successor, current);
+                }
+            },
+            failure -> logger.debug("Successor of rotated session not found. Session: [{}]", Redact.secret(successor))
+        );
+    }
+
+    @PostConstruct
+    void init() {
+        this.requestLog = logSampling.sampler(logger);
+    }
+
+    private Response unauth() {
         URI oidcProvider = null;
         String url = "";
         try {
@@ -156,17 +338,22 @@ public class AuthRequestFilter {
             return badRequest("Could not parse OIDC Provider URL: " + url);
         }
         RedirectDataResponse redirectResponse = new RedirectDataResponse(oidcProvider.toString());
-        return Optional.of(Response.status(Status.UNAUTHORIZED).entity(redirectResponse).build());
+        return Response.status(Status.UNAUTHORIZED).entity(redirectResponse).build();
     }
 
-    private Optional<Response> badRequest(String message) {
+    private Response badRequest(String message) {
         String error = """
                 {
                     "error": "%s"
                 }
                 """.formatted(message);
                 
-        return Optional.of(Response.status(Status.BAD_REQUEST).entity(error).build());
+        return Response.status(Status.BAD_REQUEST).entity(error).build();
     }
-    
+
+    /**
+     * Session ID and the cache entry to serve it from.
+     */
+    private record Session(String key, CachedToken token) {}
+
 }
@@ -0,0 +1,86 @@
+package dk.kofoed.proxy.service;
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * AES-GCM authenticated encryption with a fixed key. A random IV is generated per message and prepended to
+ * the ciphertext. <code>Cipher</code> instances are kept per thread, as they are not thread-safe but are
+ * expensive to look up.
+ */
+public final class AeadCipher {
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    private static final int IV_LENGTH = 12;
+
+    private static final int TAG_LENGTH = 16;
+
+    private final SecretKeySpec key;
+
+    private final SecureRandom random;
+
+    private final ThreadLocal<Cipher> cipher = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(TRANSFORMATION + " not available", e);
+        }
+    });
+
+    /**
+     * Create cipher for an AES key of 16, 24 or 32 bytes.
+     */
+    public AeadCipher(byte[] key, SecureRandom random) {
+        if (key.length != 16 && key.length != 24 && key.length != 32) {
+            throw new IllegalArgumentException("AES key must be 16, 24 or 32 bytes, was [" + key.length + "]");
+        }
+        this.key = new SecretKeySpec(key, "AES");
+        this.random = random;
+    }
+
+    /**
+     * Encrypt plaintext. Associated data is authenticated but not included in the output.
+     */
+    public byte[] encrypt(byte[] plaintext, byte[] associatedData) {
+        byte[] iv = new byte[IV_LENGTH];
+        random.nextBytes(iv);
+        try {
+            Cipher encryptor = cipher.get();
+            encryptor.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, iv));
+            encryptor.updateAAD(associatedData);
+            byte[] output = new byte[IV_LENGTH + encryptor.getOutputSize(plaintext.length)];
+            System.arraycopy(iv, 0, output, 0, IV_LENGTH);
+            encryptor.doFinal(plaintext, 0, plaintext.length, output, IV_LENGTH);
+            return output;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Encryption failed", e);
+        }
+    }
+
+    /**
+     * Decrypt output of <code>encrypt</code>. Returns <code>null</code> if the data has been tampered with,
+     * was encrypted with another key, or does not match the associated data.
+     */
+    public byte[] decrypt(byte[] data, byte[] associatedData) {
+        if (data.length < IV_LENGTH + TAG_LENGTH) {
+            return null;
+        }
+        try {
+            Cipher decryptor = cipher.get();
+            decryptor.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, data, 0, IV_LENGTH));
+            decryptor.updateAAD(associatedData);
+            return decryptor.doFinal(data, IV_LENGTH, data.length - IV_LENGTH);
+        } catch (AEADBadTagException e) {
+            return null;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Decryption failed", e);
+        }
+    }
+
+}
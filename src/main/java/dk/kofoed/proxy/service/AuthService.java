@@ -4,7 +4,8 @@ import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
-import java.util.UUID;
+import java.time.Duration;
+import java.util.Map;
 
 import io.quarkus.runtime.Startup;
 import io.smallrye.mutiny.Uni;
@@ -25,8 +26,14 @@ public class AuthService {
 
     private static final Logger logger = LoggerFactory.getLogger(AuthService.class);
 
+    private static final Duration STARTUP_TIMEOUT = Duration.ofSeconds(30);
+
+    private static final String IDP_METRIC = "proxy.idp.token.requests";
+
     private OpenIdConfigurationResponse openIdConfiguration;
 
+    private AuthUriTemplate authUriTemplate;
+
     @ConfigProperty(name = "auth.proxy.oidc.client.id", defaultValue = "dummy-client-id")
     String clientId;
 
@@ -49,19 +56,22 @@ public class AuthService {
     @Inject
     ProofKeyCodeExchangeService pkceService;
 
+    @Inject
+    ProxyMetrics metrics;
+
     /**
      * Fill in variable parts of the  template (OIDC_AUTH_URI_TEMPLATE environment variable).
-     * Add state UUID to list of state IDs. 
+     * Register a new pending login with the PKCE service, which is thread-safe, so concurrent unauthenticated
+     * requests never wait on each other here.
      */
-    public synchronized String buildAuthInitUri() {
-        String stateId = UUID.randomUUID().toString();
-        AuthenticationSessionData sessionData = pkceService.buildNewSessionData(stateId);
-        return openIdConfiguration.authorizationEndpoint() + doVarSubstitution(oidcAuthUri, sessionData); 
+    public String buildAuthInitUri() {
+        AuthenticationSessionData sessionData = pkceService.buildNewSessionData();
+        return authUriTemplate.build(sessionData.state(), sessionData.codeChallenge());
     }
         
     /**
-     * Check if a given state UUID was created as a result of our own authorization code flow.
-     * Remove UUID once checked, since IDs are only valid once per flow.
+     * Check if a given state ID was created as a result of our own authorization code flow.
+     * Remove ID once checked, since IDs are only valid once per flow.
      */
     public boolean stateIdOk(String id) {
         return pkceService.containsState(id);
@@ -69,33 +79,32 @@ public class AuthService {
     
     /**
      * Exhange an auth token with a full access_token by calling OIDC provider token endpoint
-     * using <code>authorization_code</code> grant type.
+     * using <code>authorization_code</code> grant type. Fails with <code>ProxyClientException</code> (401)
+     * if the OIDC provider rejects the code.
      */
-    public AccessTokenResponse getAccessToken(String authCode, String state) {
+    public Uni<AccessTokenResponse> getAccessToken(String authCode, String state) {
 
         String codeVerifier = pkceService.getCodeVerifier(state);
 
-        logger.info("Getting access_token for auth code [{}]. Code verifier: [{}]", authCode, codeVerifier);
+        logger.debug("Getting access_token for auth code [{}]", Redact.secret(authCode));
 
-        try {
-            AccessTokenResponse response = oidcClient.getAccessToken(
-                buildTokenEndpoint(openIdConfiguration.tokenEndpoint()),
-                "authorization_code",
-                clientId,
-                clientSecret,
-                authCode,
-                codeVerifier,
-                redirectUri
-            );
-            pkceService.removeSessionData(state);
-            return response;
-        } catch (OidcProviderException e) {
+        return metrics.timed(oidcClient.getAccessToken(
+            buildRelativeEndpoint(openIdConfiguration.tokenEndpoint()),
+            "authorization_code",
+            clientId,
+            clientSecret,
+            authCode,
+            codeVerifier,
+            redirectUri
+        ), IDP_METRIC, "grant_type", "authorization_code").invoke(() -> pkceService.removeSessionData(state))
+        .onFailure(OidcProviderException.class).transform(failure -> {
+            OidcProviderException e = (OidcProviderException) failure;
             logger.error("Could not retrieve an access token from OIDC provider. Error code: [{}]. Message: [{}]", 
                 e.getErrorCode(), 
                 e.getMessage()
             );
-            throw new ProxyClientException("Could not retrieve access token", 401);
-        }
+            return new ProxyClientException("Could not retrieve access token", 401);
+        });
     }
 
     /**
@@ -104,39 +113,39 @@ public class AuthService {
      */
     public Uni<AccessTokenResponse> refreshAccessToken(String refreshToken) {
 
-        logger.info("Refreshing access_token ...");
+        logger.debug("Refreshing access_token ...");
 
-        return oidcClient.refreshAccessToken(
-            buildTokenEndpoint(openIdConfiguration.tokenEndpoint()),
+        return metrics.timed(oidcClient.refreshAccessToken(
+            buildRelativeEndpoint(openIdConfiguration.tokenEndpoint()),
             "refresh_token",
             clientId,
             clientSecret,
             refreshToken
-        ).onFailure(OidcProviderException.class).invoke(failure -> {
+        ), IDP_METRIC, "grant_type", "refresh_token").onFailure(OidcProviderException.class).invoke(failure -> {
             OidcProviderException e = (OidcProviderException) failure;
             logger.error("Could not refresh access token. Error code: [{}]. Message: [{}]", e.getErrorCode(), e.getMessage(), e);
         });
     } 
 
-    private String buildTokenEndpoint(String fullyQualifiedEndpoint) {
-        return fullyQualifiedEndpoint.substring(oidcBaseUrl.length() + 1);
+    /**
+     * Fetch the OIDC provider's JSON Web Key Set from the <code>jwks_uri</code> of the OpenID configuration.
+     */
+    public Uni<String> getJsonWebKeySet() {
+        return oidcClient.getJsonWebKeySet(buildRelativeEndpoint(openIdConfiguration.jwksUri()));
     }
 
-    private String doVarSubstitution(String authUriTemplate, AuthenticationSessionData sessionData) {
-        return authUriTemplate
-            .replace("{{redirectUri}}", URLEncoder.encode(redirectUri, StandardCharsets.UTF_8))
-            .replace("{{codeChallenge}}", sessionData.codeChallenge())
-            .replace("{{state}}", sessionData.state())
-            .replace("{{clientId}}", clientId);
+    private String buildRelativeEndpoint(String fullyQualifiedEndpoint) {
+        return fullyQualifiedEndpoint.substring(oidcBaseUrl.length() + 1);
     }
 
     /**
-     * Load OIDC configuration for selected endpoint. Fail startup if loading fails.
+     * Load OIDC configuration for selected endpoint. Fail startup if loading fails. This is the only place
+     * the OIDC client is awaited, and it runs before any requests are served.
      */
     @Startup
     public void init() {
         try {
-            this.openIdConfiguration = oidcClient.getOpenIdConfiguration();
+            this.openIdConfiguration = oidcClient.getOpenIdConfiguration().await().atMost(STARTUP_TIMEOUT);
         } catch (Exception e) {
             logger.error(
                 "Could not load openid-configuration from .well-known uri for base URL: [{}]. Message: [{}]", 
@@ -149,6 +158,11 @@ public class AuthService {
             throw new OidcProviderException("Could not load OpenID configuration for base URL [" + oidcBaseUrl + "]", 500);
         }
         logger.info("Got OpenID Configuration: [{}]", openIdConfiguration);
+        this.authUriTemplate = AuthUriTemplate.compile(
+            openIdConfiguration.authorizationEndpoint(),
+            oidcAuthUri,
+            Map.of("redirectUri", URLEncoder.encode(redirectUri, StandardCharsets.UTF_8), "clientId", clientId)
+        );
     }
 
 }
@@ -0,0 +1,88 @@
+package dk.kofoed.proxy.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Authorization URI template (OIDC_AUTH_URI_TEMPLATE) compiled into literal segments and per-request variables.
+ * Values known at startup are folded into the literals, so building a URI is a single pass of appends into a
+ * pre-sized builder. Instances are immutable and can be shared between threads.
+ */
+final class AuthUriTemplate {
+
+    private static final String VARIABLE_START = "{{";
+
+    private static final String VARIABLE_END = "}}";
+
+    // length of a base64url SHA-256 code challenge; the builder grows for longer (encrypted) state values
+    private static final int EXPECTED_VARIABLE_LENGTH = 43;
+
+    /**
+     * Variables resolved per request.
+     */
+    enum Variable {
+        STATE,
+        CODE_CHALLENGE
+    }
+
+    private final String[] literals;
+
+    private final Variable[] variables;
+
+    private final int capacity;
+
+    private AuthUriTemplate(List<String> literals, List<Variable> variables) {
+        this.literals = literals.toArray(String[]::new);
+        this.variables = variables.toArray(Variable[]::new);
+        this.capacity = literals.stream().mapToInt(String::length).sum() + variables.size() * EXPECTED_VARIABLE_LENGTH;
+    }
+
+    /**
+     * Compile template. <code>{{state}}</code> and <code>{{codeChallenge}}</code> are kept as variables, names
+     * found in <code>constants</code> are replaced right away, and any other placeholder is left untouched.
+     */
+    static AuthUriTemplate compile(String prefix, String template, Map<String, String> constants) {
+        List<String> literals = new ArrayList<>();
+        List<Variable> variables = new ArrayList<>();
+        StringBuilder literal = new StringBuilder(prefix);
+        int position = 0;
+        while (position < template.length()) {
+            int start = template.indexOf(VARIABLE_START, position);
+            int end = start < 0 ? -1 : template.indexOf(VARIABLE_END, start + VARIABLE_START.length());
+            if (end < 0) {
+                literal.append(template, position, template.length());
+                break;
+            }
+            literal.append(template, position, start);
+            String name = template.substring(start + VARIABLE_START.length(), end);
+            Variable variable = switch (name) {
+                case "state" -> Variable.STATE;
+                case "codeChallenge" -> Variable.CODE_CHALLENGE;
+                default -> null;
+            };
+            if (variable != null) {
+                literals.add(literal.toString());
+                variables.add(variable);
+                literal.setLength(0);
+            } else {
+                literal.append(constants.getOrDefault(name, template.substring(start, end + VARIABLE_END.length())));
+            }
+            position = end + VARIABLE_END.length();
+        }
+        literals.add(literal.toString());
+        return new AuthUriTemplate(literals, variables);
+    }
+
+    /**
+     * Build URI for one authorization request.
+     */
+    String build(String state, String codeChallenge) {
+        StringBuilder uri = new StringBuilder(capacity);
+        for (int i = 0; i < variables.length; i++) {
+            uri.append(literals[i]).append(variables[i] == Variable.STATE ? state : codeChallenge);
+        }
+        return uri.append(literals[variables.length]).toString();
+    }
+
+}
@@ -0,0 +1,100 @@
+package dk.kofoed.proxy.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.core.Response;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.smallrye.mutiny.Uni;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kofoed.proxy.domain.CachedToken;
+import dk.kofoed.proxy.exception.ProxyClientException;
+
+/**
+ * Recover from backend <code>401</code> responses caused by an access_token that expired while in flight.
+ * The call is replayed once with a fresh token, taken from the cache if another request already refreshed
+ * it, or from the (shared) refresh for the session otherwise. Nothing blocks while waiting for the refresh.
+ */
+@ApplicationScoped
+public class BackendReplayService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BackendReplayService.class);
+
+    @ConfigProperty(name = "auth.proxy.backend.replay.max.concurrent")
+    int maxConcurrentReplays;
+
+    @Inject
+    TokenCache tokenCache;
+
+    @Inject
+    TokenRefreshService tokenRefreshService;
+
+    @Inject
+    ProxyMetrics metrics;
+
+    private final AtomicInteger replaysInFlight = new AtomicInteger();
+
+    private Counter replayed;
+
+    private Counter rejected;
+
+    private Counter failed;
+
+    /**
+     * Invoke backend call, and replay it once if backend answers <code>401</code>.
+     * 
+     * @param cacheKey - token cache key of the session, or <code>null</code> if unknown.
+     * @param sentAuthorization - auth header value passed to backend on the first call.
+     * @param call - backend call, taking an auth header override (<code>null</code> on the first call).
+     */
+    public Uni<Response> callWithReplay(String cacheKey, String sentAuthorization, Function<String, Uni<Response>> call) {
+        return call.apply(null)
+            .onFailure(failure -> isUnauthorized(failure) && cacheKey != null)
+            .recoverWithUni(failure -> replay(cacheKey, sentAuthorization, call, failure));
+    }
+
+    private Uni<Response> replay(String cacheKey, String sentAuthorization, Function<String, Uni<Response>> call, Throwable failure) {
+        if (replaysInFlight.incrementAndGet() > maxConcurrentReplays) {
+            replaysInFlight.decrementAndGet();
+            logger.warn("Too many replays in flight - passing backend 401 on to client");
+            rejected.increment();
+            return Uni.createFrom().failure(failure);
+        }
+        return tokenCache.get(cacheKey)
+            .chain(cachedToken -> freshAuthorization(cacheKey, cachedToken, sentAuthorization))
+            .onFailure().transform(refreshFailure -> failure)
+            .chain(call::apply)
+            .onItemOrFailure().invoke((response, replayFailure) -> (replayFailure == null ? replayed : failed).increment())
+            .onTermination().invoke(replaysInFlight::decrementAndGet);
+    }
+
+    private Uni<String> freshAuthorization(String cacheKey, CachedToken cachedToken, String sentAuthorization) {
+        String cachedAuthorization = "Bearer " + cachedToken.token().accessToken();
+        if (!cachedAuthorization.equals(sentAuthorization)) {
+            // token was refreshed after this request was sent
+            return Uni.createFrom().item(cachedAuthorization);
+        }
+        return tokenRefreshService.refresh(cacheKey, cachedToken.token().refreshToken())
+            .map(token -> "Bearer " + token.accessToken());
+    }
+
+    @PostConstruct
+    void init() {
+        MeterRegistry registry = metrics.registry();
+        this.replayed = registry.counter("proxy.backend.replays", ProxyMetrics.OUTCOME, ProxyMetrics.SUCCESS);
+        this.failed = registry.counter("proxy.backend.replays", ProxyMetrics.OUTCOME, ProxyMetrics.FAILURE);
+        this.rejected = registry.counter("proxy.backend.replays", ProxyMetrics.OUTCOME, "rejected");
+    }
+
+    private boolean isUnauthorized(Throwable failure) {
+        return failure instanceof ProxyClientException e && e.getStatusCode() == Response.Status.UNAUTHORIZED.getStatusCode();
+    }
+
+}
@@ -0,0 +1,44 @@
+package dk.kofoed.proxy.service;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+
+/**
+ * Logger for statements made once per proxied request. These are logged at <code>DEBUG</code> when enabled for
+ * the category; otherwise a random sample of one in <code>rate</code> is logged at <code>INFO</code>, and nothing
+ * at all with rate 0. Level and sample checks come before any formatting. Created by {@link LogSampling}.
+ */
+public final class LogSampler {
+
+    private final Logger logger;
+
+    private final int rate;
+
+    LogSampler(Logger logger, int rate) {
+        this.logger = logger;
+        this.rate = rate;
+    }
+
+    public void log(String format, Object arg) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(format, arg);
+        } else if (sampled()) {
+            logger.info(format, arg);
+        }
+    }
+
+    public void log(String format, Object arg1, Object arg2) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(format, arg1, arg2);
+        } else if (sampled()) {
+            logger.info(format, arg1, arg2);
+        }
+    }
+
+    private boolean sampled() {
+        // no shared counter, so sampling adds no contention between event loop threads
+        return rate > 0 && logger.isInfoEnabled() && ThreadLocalRandom.current().nextInt(rate) == 0;
+    }
+
+}
@@ -0,0 +1,30 @@
+package dk.kofoed.proxy.service;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+
+/**
+ * Hands out samplers for hot path logging. The sample rate is <code>auth.proxy.log.sample.rate</code>, and can
+ * be overridden per logger category with <code>auth.proxy.log.sample.rate."&lt;category&gt;"</code>.
+ */
+@ApplicationScoped
+public class LogSampling {
+
+    private static final String RATE_PROPERTY = "auth.proxy.log.sample.rate";
+
+    @ConfigProperty(name = RATE_PROPERTY)
+    int defaultRate;
+
+    @Inject
+    Config config;
+
+    public LogSampler sampler(Logger logger) {
+        int rate = config.getOptionalValue(RATE_PROPERTY + ".\"" + logger.getName() + "\"", Integer.class).orElse(defaultRate);
+        return new LogSampler(logger, rate);
+    }
+
+}
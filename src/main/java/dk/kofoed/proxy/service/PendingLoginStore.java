@@ -0,0 +1,111 @@
+package dk.kofoed.proxy.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.scheduler.Scheduled;
+import io.quarkus.scheduler.Scheduled.ConcurrentExecution;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Code verifiers of logins waiting for a callback from the OIDC provider, by state ID. Entries expire after a
+ * fixed time, and the store never holds more than a configured number of entries: when full, the oldest
+ * pending login is evicted. Since all entries live equally long, insertion order is also expiry order, so a
+ * single FIFO queue serves both policies. Verifiers are kept as raw bytes.
+ */
+@ApplicationScoped
+public class PendingLoginStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(PendingLoginStore.class);
+
+    @ConfigProperty(name = "auth.proxy.pkce.state.ttl.seconds")
+    long ttlSeconds;
+
+    @ConfigProperty(name = "auth.proxy.pkce.state.max.size")
+    int maxSize;
+
+    @Inject
+    ProxyMetrics metrics;
+
+    private Map<String, PendingLogin> logins;
+
+    private Queue<PendingLogin> insertionOrder;
+
+    private Counter expired;
+
+    private Counter evicted;
+
+    /**
+     * Add pending login, evicting the oldest ones if the store is full.
+     */
+    public void put(String state, byte[] codeVerifier) {
+        PendingLogin login = new PendingLogin(state, codeVerifier, System.currentTimeMillis() + ttlSeconds * 1000);
+        this.logins.put(state, login);
+        this.insertionOrder.offer(login);
+        while (this.logins.size() > maxSize) {
+            PendingLogin oldest = this.insertionOrder.poll();
+            if (oldest == null) {
+                break;
+            }
+            if (this.logins.remove(oldest.state(), oldest)) {
+                evicted.increment();
+            }
+        }
+    }
+
+    /**
+     * Get code verifier bytes for state, or <code>null</code> if the login is unknown or has expired.
+     */
+    public byte[] get(String state) {
+        PendingLogin login = this.logins.get(state);
+        if (login == null || login.expiry() <= System.currentTimeMillis()) {
+            return null;
+        }
+        return login.codeVerifier();
+    }
+
+    public void remove(String state) {
+        this.logins.remove(state);
+    }
+
+    /**
+     * Drop expired logins. Completed logins are skipped here, as they have already left the map.
+     */
+    @Scheduled(every = "${auth.proxy.pkce.state.cleanup.interval}", concurrentExecution = ConcurrentExecution.SKIP)
+    void removeExpired() {
+        long now = System.currentTimeMillis();
+        int counter = 0;
+        PendingLogin oldest;
+        while ((oldest = this.insertionOrder.peek()) != null && oldest.expiry() <= now) {
+            if (this.insertionOrder.remove(oldest) && this.logins.remove(oldest.state(), oldest)) {
+                counter++;
+            }
+        }
+        expired.increment(counter);
+        if (counter > 0) {
+            logger.info("Removed [{}] expired pending logins", counter);
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        this.logins = new ConcurrentHashMap<>();
+        this.insertionOrder = new ConcurrentLinkedQueue<>();
+        MeterRegistry registry = metrics.registry();
+        this.expired = registry.counter("proxy.pkce.pending.evictions", "reason", "expired");
+        this.evicted = registry.counter("proxy.pkce.pending.evictions", "reason", "capacity");
+        registry.gauge("proxy.pkce.pending.size", this.logins, Map::size);
+    }
+
+    private record PendingLogin(String state, byte[] codeVerifier, long expiry) {}
+
+}
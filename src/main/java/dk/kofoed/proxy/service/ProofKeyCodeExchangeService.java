@@ -2,69 +2,223 @@ package dk.kofoed.proxy.service;
 
 import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
-import java.nio.charset.StandardCharsets;
+import jakarta.inject.Inject;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Base64;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.quarkus.scheduler.Scheduled;
+import io.quarkus.scheduler.Scheduled.ConcurrentExecution;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import dk.kofoed.proxy.domain.AuthenticationSessionData;
+import dk.kofoed.proxy.domain.StateMode;
 
+/**
+ * Generate and keep PKCE material for authorization code flows. All threads share one non-blocking CSPRNG, and
+ * SHA-256 digests are reused per thread. Verifier/challenge pairs can optionally be precomputed in the
+ * background, so unauthenticated requests only have to take one from a queue.
+ * <p>
+ * In <code>MEMORY</code> state mode, pending logins are kept in a bounded <code>PendingLoginStore</code>. In
+ * <code>ENCRYPTED</code> mode, the code verifier and an expiry time are encrypted into the state value itself,
+ * so no pending logins are stored and the callback can be handled by any instance sharing the same key. Each
+ * instance remembers the states it has handed out a code verifier for until they expire, and rejects them after that.
+ */
 @ApplicationScoped
 public class ProofKeyCodeExchangeService {
     
     private static final Logger logger = LoggerFactory.getLogger(ProofKeyCodeExchangeService.class);
 
-    private Map<String, AuthenticationSessionData> sessionDataMap;
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+    private static final SecureRandom RANDOM = SecureRandomIds.random();
+
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    });
+
+    @ConfigProperty(name = "auth.proxy.pkce.pool.size")
+    int poolSize;
+
+    @ConfigProperty(name = "auth.proxy.pkce.state.mode")
+    StateMode stateMode;
+
+    @ConfigProperty(name = "auth.proxy.pkce.state.key")
+    Optional<String> stateKey;
+
+    @ConfigProperty(name = "auth.proxy.pkce.state.ttl.seconds")
+    long stateTtlSeconds;
+
+    @ConfigProperty(name = "auth.proxy.oidc.client.id")
+    String clientId;
+
+    @Inject
+    PendingLoginStore pendingLogins;
+
+    private BlockingQueue<ProofKey> pool;
+
+    private AeadCipher stateCipher;
+
+    private byte[] stateAssociatedData;
+
+    /**
+     * Encrypted states already used in a callback to this instance, kept until the states expire.
+     */
+    private Cache<String, Boolean> usedStates;
 
     /**
-     * Build a <code>AuthenticationSessionData</code> instance, add it to map, and return to caller.
+     * Build a <code>AuthenticationSessionData</code> instance for a new login, register code verifier as
+     * pending login, and return to caller.
      */
-    public AuthenticationSessionData buildNewSessionData(String state) {
-        String codeVerifier = generateCodeVerifier();
-        String codeChallenge = generateCodeChallenge(codeVerifier);
-        AuthenticationSessionData sessionData = new AuthenticationSessionData(state, codeChallenge, codeVerifier);
-        this.sessionDataMap.put(state, sessionData);
-        return sessionData;
+    public AuthenticationSessionData buildNewSessionData() {
+        ProofKey proofKey = this.pool == null ? null : this.pool.poll();
+        if (proofKey == null) {
+            proofKey = generateProofKey();
+        }
+        String state;
+        if (stateMode == StateMode.ENCRYPTED) {
+            state = encryptState(proofKey.codeVerifier());
+        } else {
+            state = SecureRandomIds.newId();
+            this.pendingLogins.put(state, proofKey.codeVerifier());
+        }
+        return new AuthenticationSessionData(state, proofKey.codeChallenge());
     }
 
     public boolean containsState(String stateId) {
-        return this.sessionDataMap.containsKey(stateId);
+        return findCodeVerifier(stateId) != null;
     }
 
+    /**
+     * Get encoded code verifier for state, or <code>null</code> if the login has expired in the meantime. In
+     * <code>ENCRYPTED</code> mode, the code verifier of a state is handed out only once.
+     */
     public String getCodeVerifier(String state) {
-        return this.sessionDataMap.get(state).codeVerifier();
+        byte[] codeVerifier = findCodeVerifier(state);
+        if (codeVerifier == null) {
+            return null;
+        }
+        if (stateMode == StateMode.ENCRYPTED && this.usedStates.asMap().putIfAbsent(state, true) != null) {
+            // a concurrent callback with the same state got here first
+            return null;
+        }
+        return ENCODER.encodeToString(codeVerifier);
     }
 
     public void removeSessionData(String state) {
-        this.sessionDataMap.remove(state);
+        if (stateMode == StateMode.MEMORY) {
+            this.pendingLogins.remove(state);
+        } else {
+            this.usedStates.put(state, true);
+        }
+    }
+
+    /**
+     * Top up pool of precomputed verifier/challenge pairs. Does nothing if pooling is disabled.
+     */
+    @Scheduled(every = "${auth.proxy.pkce.pool.refill.interval}", concurrentExecution = ConcurrentExecution.SKIP)
+    void refillPool() {
+        if (this.pool == null) {
+            return;
+        }
+        while (this.pool.remainingCapacity() > 0 && this.pool.offer(generateProofKey())) {
+            // keep filling until full
+        }
+    }
+
+    private byte[] findCodeVerifier(String state) {
+        if (state == null) {
+            return null;
+        }
+        if (stateMode == StateMode.ENCRYPTED) {
+            return this.usedStates.getIfPresent(state) == null ? decryptState(state) : null;
+        }
+        return this.pendingLogins.get(state);
+    }
+
+    /**
+     * Encrypt expiry time and code verifier into a state value. The client ID is bound as associated data.
+     */
+    private String encryptState(byte[] codeVerifier) {
+        ByteBuffer plaintext = ByteBuffer.allocate(Long.BYTES + codeVerifier.length)
+            .putLong(System.currentTimeMillis() + stateTtlSeconds * 1000)
+            .put(codeVerifier);
+        return ENCODER.encodeToString(stateCipher.encrypt(plaintext.array(), stateAssociatedData));
+    }
+
+    /**
+     * Get code verifier from an encrypted state value, or <code>null</code> if the value was not issued by
+     * us or has expired.
+     */
+    private byte[] decryptState(String state) {
+        byte[] plaintext;
+        try {
+            plaintext = stateCipher.decrypt(Base64.getUrlDecoder().decode(state), stateAssociatedData);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (plaintext == null || plaintext.length <= Long.BYTES) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(plaintext);
+        if (buffer.getLong() <= System.currentTimeMillis()) {
+            return null;
+        }
+        byte[] codeVerifier = new byte[buffer.remaining()];
+        buffer.get(codeVerifier);
+        return codeVerifier;
+    }
+
+    private ProofKey generateProofKey() {
+        byte[] codeVerifier = generateCodeVerifier();
+        return new ProofKey(codeVerifier, generateCodeChallenge(ENCODER.encodeToString(codeVerifier)));
     }
                 
-    private String generateCodeVerifier() {
-        SecureRandom random = new SecureRandom();
+    private byte[] generateCodeVerifier() {
         byte[] codeVerifierBytes = new byte[64];
-        random.nextBytes(codeVerifierBytes);
-        return Base64.getUrlEncoder().withoutPadding().encodeToString(codeVerifierBytes);        
+        RANDOM.nextBytes(codeVerifierBytes);
+        return codeVerifierBytes;
     }
 
     private String generateCodeChallenge(String codeVerifier) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hashedBytes = digest.digest(codeVerifier.getBytes(StandardCharsets.US_ASCII));
-            return Base64.getUrlEncoder().withoutPadding().encodeToString(hashedBytes);
-        } catch (Exception e) {
-            logger.error("Could not generate code challenge for codeVerifier = [{}]", codeVerifier);
-            throw new RuntimeException("Error generating code challenge", e);
-        }
-    }        
+        byte[] hashedBytes = DIGEST.get().digest(codeVerifier.getBytes(StandardCharsets.US_ASCII));
+        return ENCODER.encodeToString(hashedBytes);
+    }
 
     @PostConstruct
     protected void init() {
-        this.sessionDataMap = new ConcurrentHashMap<>();
+        if (stateMode == StateMode.ENCRYPTED) {
+            String key = stateKey.orElseThrow(() -> new IllegalStateException(
+                "OIDC_STATE_ENCRYPTION_KEY must be set when OIDC_STATE_MODE is ENCRYPTED"));
+            this.stateCipher = new AeadCipher(Base64.getDecoder().decode(key.trim()), RANDOM);
+            this.stateAssociatedData = clientId.getBytes(StandardCharsets.UTF_8);
+            this.usedStates = Caffeine.newBuilder()
+                .expireAfterWrite(Duration.ofSeconds(Math.max(stateTtlSeconds, 0)))
+                .build();
+        }
+        logger.info("Using PKCE state mode [{}]", stateMode);
+        if (poolSize > 0) {
+            this.pool = new ArrayBlockingQueue<>(poolSize);
+            refillPool();
+            logger.info("Precomputing up to [{}] PKCE code verifiers", poolSize);
+        }
     }
 
+    private record ProofKey(byte[] codeVerifier, String codeChallenge) {}
+
 }
@@ -0,0 +1,73 @@
+package dk.kofoed.proxy.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.smallrye.mutiny.Uni;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * Entry point for all proxy metrics. When metrics are disabled, meters are created in an empty composite
+ * registry, which hands out no-op meters, so instrumented code needs no checks of its own. Tags must have
+ * low cardinality: never tag with paths, session IDs or user data.
+ */
+@ApplicationScoped
+public class ProxyMetrics {
+
+    public static final String OUTCOME = "outcome";
+
+    public static final String SUCCESS = "success";
+
+    public static final String FAILURE = "failure";
+
+    @ConfigProperty(name = "auth.proxy.metrics.enabled")
+    boolean enabled;
+
+    @Inject
+    MeterRegistry meterRegistry;
+
+    private MeterRegistry registry;
+
+    public MeterRegistry registry() {
+        return registry;
+    }
+
+    /**
+     * Time a <code>Uni</code> from subscription until it emits, tagged with <code>success</code> or
+     * <code>failure</code> outcome.
+     */
+    public <T> Uni<T> timed(Uni<T> uni, String name, String... tags) {
+        return timed(uni, name, (item, failure) -> failure == null ? SUCCESS : FAILURE, tags);
+    }
+
+    /**
+     * Time a <code>Uni</code> from subscription until it emits. The outcome tag is derived from the item or
+     * failure. Timers publish percentile histograms.
+     */
+    public <T> Uni<T> timed(Uni<T> uni, String name, BiFunction<T, Throwable, String> outcome, String... tags) {
+        if (!enabled) {
+            return uni;
+        }
+        return Uni.createFrom().deferred(() -> {
+            long start = System.nanoTime();
+            return uni.onItemOrFailure().invoke((item, failure) -> Timer.builder(name)
+                .tags(Tags.of(tags).and(OUTCOME, outcome.apply(item, failure)))
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+        });
+    }
+
+    @PostConstruct
+    void init() {
+        this.registry = enabled ? meterRegistry : new CompositeMeterRegistry();
+    }
+
+}
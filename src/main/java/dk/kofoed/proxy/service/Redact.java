@@ -0,0 +1,50 @@
+package dk.kofoed.proxy.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * Redaction of secrets (session IDs, authorization codes, tokens) in log statements. A secret is logged as a
+ * short fingerprint of its SHA-256 hash, so log lines about the same session can be correlated without the
+ * value itself ever being written. The fingerprint is computed lazily, only if the log statement is enabled.
+ */
+public final class Redact {
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+    private static final int FINGERPRINT_LENGTH = 8;
+
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    });
+
+    private Redact() {
+    }
+
+    /**
+     * Wrap secret for logging. Pass the result as a log argument; its <code>toString</code> is the fingerprint.
+     */
+    public static Object secret(String value) {
+        return new Secret(value);
+    }
+
+    private record Secret(String value) {
+
+        @Override
+        public String toString() {
+            if (value == null || value.isEmpty()) {
+                return "none";
+            }
+            byte[] hash = DIGEST.get().digest(value.getBytes(StandardCharsets.UTF_8));
+            return "#" + ENCODER.encodeToString(hash).substring(0, FINGERPRINT_LENGTH);
+        }
+
+    }
+
+}
@@ -0,0 +1,305 @@
+package dk.kofoed.proxy.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.Response.Status;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.smallrye.mutiny.Uni;
+import io.vertx.core.buffer.Buffer;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import dk.kofoed.proxy.client.BackendTarget;
+import dk.kofoed.proxy.domain.CacheScope;
+
+/**
+ * Cache of backend responses to <code>GET</code> requests, for routes with a cache scope. Entries of
+ * <code>PRIVATE</code> routes are partitioned by the subject (<code>sub</code>) of the cached access token, so
+ * one user's data is never served to another; entries of <code>PUBLIC</code> routes are shared by all users.
+ * Backend <code>Cache-Control</code>, <code>ETag</code> and <code>Vary</code> headers decide what is stored and
+ * for how long. Stale entries with an entity tag are revalidated with the backend using
+ * <code>If-None-Match</code>, so an unchanged body is not transferred again. Memory is bounded by total body size,
+ * with W-TinyLFU eviction.
+ */
+@ApplicationScoped
+public class ResponseCache {
+
+    private static final String CACHE_CONTROL = "Cache-Control";
+
+    private static final String AGE = "Age";
+
+    private static final String VARY = "Vary";
+
+    /**
+     * Estimated heap size of an entry beside its body.
+     */
+    private static final int ENTRY_OVERHEAD = 512;
+
+    @ConfigProperty(name = "auth.proxy.backend.cache.max.size")
+    long maxSize;
+
+    @ConfigProperty(name = "auth.proxy.backend.cache.max.entry.size")
+    int maxEntrySize;
+
+    @Inject
+    ProxyMetrics metrics;
+
+    private Cache<Key, CachedResponse> cache;
+
+    private Counter hits;
+
+    private Counter revalidations;
+
+    private Counter misses;
+
+    private Counter bypasses;
+
+    /**
+     * Serve <code>GET</code> request from cache, or fetch it from backend and cache the response if allowed.
+     *
+     * @param target - backend target of the request, which must be routed to a backend with a cache scope.
+     * @param headers - headers of the request.
+     * @param subject - subject of the request's access token, or <code>null</code> if unknown.
+     * @param fetch - backend call, taking an entity tag to revalidate (<code>null</code> for an unconditional call).
+     */
+    public Uni<Response> get(BackendTarget target, HttpHeaders headers, String subject, Function<String, Uni<Response>> fetch) {
+        Directives request = Directives.parse(headers.getHeaderString(CACHE_CONTROL));
+        Key key = key(target, subject);
+        if (key == null || request.noStore()) {
+            bypasses.increment();
+            return fetch.apply(null);
+        }
+
+        CachedResponse entry = request.noCache() ? null : cache.getIfPresent(key);
+        if (entry != null && !entry.varies(headers)) {
+            if (entry.fresh(System.currentTimeMillis())) {
+                hits.increment();
+                return Uni.createFrom().item(entry.toResponse(headers));
+            }
+            if (entry.etag() != null) {
+                return fetch.apply(entry.etag()).map(response -> {
+                    if (response.getStatus() != Status.NOT_MODIFIED.getStatusCode()) {
+                        misses.increment();
+                        return store(key, headers, response);
+                    }
+                    revalidations.increment();
+                    CachedResponse revalidated = entry.revalidated(freshUntil(key.scope(), response, entry.maxAge()));
+                    cache.put(key, revalidated);
+                    return revalidated.toResponse(headers);
+                });
+            }
+        }
+        misses.increment();
+        return fetch.apply(null).map(response -> store(key, headers, response));
+    }
+
+    /**
+     * Drop cached responses for a target after an unsafe request (e.g. <code>PUT</code> or <code>DELETE</code>)
+     * to it succeeded, as they are likely outdated.
+     */
+    public void invalidate(BackendTarget target, String subject) {
+        Key key = key(target, subject);
+        if (key != null) {
+            cache.invalidate(key);
+        }
+    }
+
+    /**
+     * Store response if its status and headers allow it. Returns the response to pass on to the client.
+     */
+    private Response store(Key key, HttpHeaders requestHeaders, Response response) {
+        if (response.getStatus() != Status.OK.getStatusCode()
+            || !(response.getEntity() instanceof Buffer body)
+            || body.length() > maxEntrySize
+            || response.getHeaders().containsKey(HttpHeaders.SET_COOKIE)) {
+            return response;
+        }
+        Directives directives = Directives.parse(response.getHeaderString(CACHE_CONTROL));
+        String vary = response.getHeaderString(VARY);
+        String etag = response.getHeaderString(HttpHeaders.ETAG);
+        if (directives.noStore() || (directives.isPrivate() && key.scope() == CacheScope.PUBLIC) || "*".equals(vary)) {
+            return response;
+        }
+        long maxAge = directives.maxAge(key.scope());
+        if (maxAge <= 0 && etag == null) {
+            // could neither be served without asking the backend nor revalidated
+            return response;
+        }
+
+        List<String> varyNames = vary == null ? List.of() : Directives.split(vary);
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        response.getStringHeaders().forEach((name, values) -> headers.put(name, List.copyOf(values)));
+        cache.put(key, new CachedResponse(
+            headers,
+            body.getBytes(),
+            etag,
+            maxAge,
+            freshUntil(key.scope(), response, maxAge),
+            varyNames,
+            CachedResponse.varyValues(varyNames, requestHeaders)
+        ));
+        return response;
+    }
+
+    /**
+     * Cache key of a target, or <code>null</code> if responses cannot be cached for the request.
+     */
+    private Key key(BackendTarget target, String subject) {
+        CacheScope scope = target.backend().route().cache();
+        if (scope == CacheScope.PUBLIC) {
+            return new Key(scope, "", target.backend().route().url(), target.uri());
+        }
+        return subject == null ? null : new Key(scope, subject, target.backend().route().url(), target.uri());
+    }
+
+    /**
+     * Time (epoch millis) until which a response is fresh, taking the age it already had at the backend into account.
+     * A <code>304</code> response without freshness information keeps the previous lifetime.
+     */
+    private long freshUntil(CacheScope scope, Response response, long previousMaxAge) {
+        Directives directives = Directives.parse(response.getHeaderString(CACHE_CONTROL));
+        long maxAge = response.getHeaderString(CACHE_CONTROL) == null ? previousMaxAge : directives.maxAge(scope);
+        long age = 0;
+        String ageHeader = response.getHeaderString(AGE);
+        if (ageHeader != null) {
+            try {
+                age = Long.parseLong(ageHeader.trim());
+            } catch (NumberFormatException e) {
+                // ignore invalid Age header
+            }
+        }
+        return System.currentTimeMillis() + Math.max(0, maxAge - age) * 1000;
+    }
+
+    @PostConstruct
+    void init() {
+        this.cache = Caffeine.newBuilder()
+            .maximumWeight(maxSize)
+            .weigher((Key key, CachedResponse entry) -> entry.body().length + ENTRY_OVERHEAD)
+            .build();
+        MeterRegistry registry = metrics.registry();
+        this.hits = registry.counter("proxy.backend.cache.requests", "result", "hit");
+        this.revalidations = registry.counter("proxy.backend.cache.requests", "result", "revalidated");
+        this.misses = registry.counter("proxy.backend.cache.requests", "result", "miss");
+        this.bypasses = registry.counter("proxy.backend.cache.requests", "result", "bypass");
+        registry.gauge("proxy.backend.cache.size", this.cache, Cache::estimatedSize);
+    }
+
+    private record Key(CacheScope scope, String subject, String url, String target) {
+    }
+
+    /**
+     * Cached response. <code>Vary</code> header values of the request that caused it are kept, and only requests
+     * with the same values are served from it.
+     */
+    private record CachedResponse(
+        Map<String, List<String>> headers,
+        byte[] body,
+        String etag,
+        long maxAge,
+        long freshUntil,
+        List<String> varyNames,
+        List<String> varyValues
+    ) {
+
+        static List<String> varyValues(List<String> varyNames, HttpHeaders headers) {
+            return varyNames.stream().map(name -> String.valueOf(headers.getHeaderString(name))).toList();
+        }
+
+        boolean fresh(long now) {
+            return now < freshUntil;
+        }
+
+        boolean varies(HttpHeaders headers) {
+            return !varyNames.isEmpty() && !varyValues.equals(varyValues(varyNames, headers));
+        }
+
+        CachedResponse revalidated(long newFreshUntil) {
+            return new CachedResponse(headers, body, etag, maxAge, newFreshUntil, varyNames, varyValues);
+        }
+
+        /**
+         * Build response, or <code>304 Not Modified</code> if the client already has this version.
+         */
+        Response toResponse(HttpHeaders requestHeaders) {
+            String ifNoneMatch = requestHeaders.getHeaderString(HttpHeaders.IF_NONE_MATCH);
+            boolean notModified = etag != null && ifNoneMatch != null
+                && ("*".equals(ifNoneMatch.trim()) || Directives.split(ifNoneMatch).contains(etag));
+            Response.ResponseBuilder builder = notModified
+                ? Response.notModified()
+                : Response.ok(body);
+            headers.forEach((name, values) -> values.forEach(value -> builder.header(name, value)));
+            return builder.build();
+        }
+
+    }
+
+    /**
+     * The <code>Cache-Control</code> directives used by the cache.
+     */
+    private record Directives(boolean noStore, boolean noCache, boolean isPrivate, long maxAge, long sharedMaxAge) {
+
+        private static final Directives NONE = new Directives(false, false, false, -1, -1);
+
+        static Directives parse(String cacheControl) {
+            if (cacheControl == null) {
+                return NONE;
+            }
+            boolean noStore = false;
+            boolean noCache = false;
+            boolean isPrivate = false;
+            long maxAge = -1;
+            long sharedMaxAge = -1;
+            for (String directive : split(cacheControl)) {
+                String name = directive.toLowerCase();
+                if (name.equals("no-store")) {
+                    noStore = true;
+                } else if (name.startsWith("no-cache")) {
+                    noCache = true;
+                } else if (name.startsWith("private")) {
+                    isPrivate = true;
+                } else if (name.startsWith("max-age=")) {
+                    maxAge = seconds(name.substring(8));
+                } else if (name.startsWith("s-maxage=")) {
+                    sharedMaxAge = seconds(name.substring(9));
+                }
+            }
+            return new Directives(noStore, noCache, isPrivate, maxAge, sharedMaxAge);
+        }
+
+        /**
+         * Seconds a response may be served without revalidation. <code>s-maxage</code> only applies to shared
+         * entries, and <code>no-cache</code> means always revalidate.
+         */
+        long maxAge(CacheScope scope) {
+            if (noCache) {
+                return 0;
+            }
+            return scope == CacheScope.PUBLIC && sharedMaxAge >= 0 ? sharedMaxAge : maxAge;
+        }
+
+        static List<String> split(String value) {
+            return List.of(value.split(",")).stream().map(String::trim).filter(token -> !token.isEmpty()).toList();
+        }
+
+        private static long seconds(String value) {
+            try {
+                return Long.parseLong(value.replace("\"", "").trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,47 @@
+package dk.kofoed.proxy.service;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shared CSPRNG and generator of unguessable IDs (session IDs, state IDs). Prefers the non-blocking native PRNG,
+ * which never waits for the entropy pool after seeding.
+ */
+public final class SecureRandomIds {
+
+    private static final Logger logger = LoggerFactory.getLogger(SecureRandomIds.class);
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+    private static final SecureRandom RANDOM = createRandom();
+
+    private SecureRandomIds() {
+    }
+
+    public static SecureRandom random() {
+        return RANDOM;
+    }
+
+    /**
+     * Generate a random 128-bit ID, base64url encoded into 22 characters.
+     */
+    public static String newId() {
+        byte[] id = new byte[16];
+        RANDOM.nextBytes(id);
+        return ENCODER.encodeToString(id);
+    }
+
+    private static SecureRandom createRandom() {
+        try {
+            return SecureRandom.getInstance("NativePRNGNonBlocking");
+        } catch (NoSuchAlgorithmException e) {
+            logger.info("NativePRNGNonBlocking not available, using default SecureRandom");
+            return new SecureRandom();
+        }
+    }
+
+}
@@ -2,103 +2,200 @@ package dk.kofoed.proxy.service;
 
 import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Instance;
 import jakarta.inject.Inject;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.runtime.Startup;
+import io.quarkus.scheduler.Scheduled;
+import io.quarkus.scheduler.Scheduled.ConcurrentExecution;
 import io.smallrye.mutiny.Uni;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import dk.kofoed.proxy.client.model.AccessTokenResponse;
+import dk.kofoed.proxy.domain.CacheMethod;
+import dk.kofoed.proxy.domain.CachedToken;
 import dk.kofoed.proxy.exception.TokenExpiredException;
 import dk.kofoed.proxy.exception.TokenNotFoundException;
+import dk.kofoed.proxy.service.store.MemoryTokenStore;
+import dk.kofoed.proxy.service.store.RedisTokenStore;
+import dk.kofoed.proxy.service.store.TokenStore;
 
+/**
+ * Cache of tokens by session ID, in the token store selected by <code>AUTHENTICATION_CACHE_METHOD</code>. Created
+ * at startup, so a store that restores sessions (e.g. from the token journal) does so on the startup thread,
+ * before any request is served, rather than on the event loop thread of the first request.
+ */
+@Startup
 @ApplicationScoped
 public class TokenCache {
 
     private static final Logger logger = LoggerFactory.getLogger(TokenCache.class);
 
-    private Map<String, AccessTokenResponse> cache;
+    private TokenStore store;
 
-    protected static final int CLEANUP_READ_INTERVAL = 1000;
+    private Counter evictions;
 
-    private int readCounter;
+    private Timer sweepTimer;
+
+    private Counter hits;
+
+    private Counter misses;
+
+    private LogSampler requestLog;
+
+    @ConfigProperty(name = "auth.proxy.cache.method")
+    CacheMethod cacheMethod;
 
     @Inject
     TokenHelper tokenHelper;
 
+    @Inject
+    TokenVerifier tokenVerifier;
+
+    @Inject
+    TokenCookieCodec tokenCookieCodec;
+
+    @Inject
+    ProxyMetrics metrics;
+
+    @Inject
+    LogSampling logSampling;
+
+    @Inject
+    TokenRefreshScheduler tokenRefreshScheduler;
+
+    @Inject
+    Instance<MemoryTokenStore> memoryStore;
+
+    @Inject
+    Instance<RedisTokenStore> redisStore;
+
     /**
-     * Add access token response to cache.
+     * Add access token response to cache. Token signature and expiry times are resolved here, once per token,
+     * so cached tokens are never verified again. Fails with <code>TokenVerificationException</code> if the
+     * access_token is not signed by the OIDC provider.
      */
-    public void put(String key, AccessTokenResponse value) {
-        logger.info("Putting new token in cache. Key: [{}]", key);
-        this.cache.put(key, value);
+    public Uni<Void> put(String key, AccessTokenResponse value) {
+        logger.debug("Putting new token in cache. Key: [{}]", Redact.secret(key));
+        return tokenVerifier.verify(value.accessToken())
+            .chain(() -> this.store.put(key, tokenHelper.toCacheEntry(value)));
     }
 
     /**
-     * Get access token for specified cache key. Note that token may or may not be expired at this point.
-     * Periodically do cache housekeeping by calling cleanup method.
+     * Add refreshed access token response under a new session ID, and leave a copy pointing at the new ID under
+     * the previous one. Emits the new session ID.
      */
-    public AccessTokenResponse get(String key) throws TokenNotFoundException {
-        readCounter++;
-        if (readCounter == CLEANUP_READ_INTERVAL) {
-            doCacheCleanup();
-            readCounter = 0;
-        }
-        AccessTokenResponse accessToken = this.cache.get(key);
-        if (accessToken == null) {
-            logger.info("Token not found for key [{}]", key);
-            throw new TokenNotFoundException();
+    public Uni<String> rotate(String key, AccessTokenResponse value) {
+        String successor = SecureRandomIds.newId();
+        logger.debug("Rotating session. Key: [{}]. New key: [{}]", Redact.secret(key), Redact.secret(successor));
+        return tokenVerifier.verify(value.accessToken())
+            .map(ignored -> tokenHelper.toCacheEntry(value))
+            .call(token -> this.store.put(successor, token))
+            .call(token -> this.store.put(key, token.rotatedTo(successor)))
+            .invoke(() -> tokenRefreshScheduler.untrack(key))
+            .replaceWith(successor);
+    }
+
+    /**
+     * Shorten lifetime of an entry left behind by a session rotation, once the client has been handed the new
+     * session ID. Does nothing if the entry already expires within <code>graceSeconds</code>.
+     */
+    public void expireRotated(String key, CachedToken token, long graceSeconds) {
+        long expiry = System.currentTimeMillis() + graceSeconds * 1000;
+        if (token.expiry() <= expiry) {
+            return;
         }
-        logger.info("Got token from cache. Key: [{}]", key);
-        return accessToken;
+        this.store.put(key, token.cappedTo(expiry)).subscribe().with(
+            success -> { },
+            failure -> logger.warn("Could not expire rotated session. Message: [{}]", failure.getMessage())
+        );
+    }
+
+    /**
+     * Verify access token response and seal it into cookie values, for the <code>COOKIE</code> cache method
+     * where tokens are kept by the client instead of in the cache.
+     */
+    public Uni<List<String>> seal(AccessTokenResponse value) {
+        return tokenVerifier.verify(value.accessToken())
+            .map(ignored -> tokenCookieCodec.encode(tokenHelper.toCacheEntry(value)));
+    }
+
+    /**
+     * Open token sealed into cookie values. Returns <code>null</code> if values are missing or invalid.
+     */
+    public CachedToken unseal(List<String> values) {
+        return tokenCookieCodec.decode(values);
+    }
+
+    /**
+     * Get access token for specified cache key. Note that token may or may not be expired at this point.
+     * Fails with <code>TokenNotFoundException</code> if cache does not contain any entries for key.
+     */
+    public Uni<CachedToken> get(String key) {
+        return this.store.get(key)
+            .invoke(token -> (token == null ? misses : hits).increment())
+            .onItem().ifNull().failWith(() -> {
+                logger.debug("Token not found for key [{}]", Redact.secret(key));
+                return new TokenNotFoundException();
+            })
+            .invoke(() -> requestLog.log("Got token from cache. Key: [{}]", Redact.secret(key)));
     }
 
     /**
      * Check if access_token is close to expiry. 
      */
-    public Uni<AccessTokenResponse> checkRefresh(String key) throws TokenNotFoundException {
-        AccessTokenResponse token = this.cache.get(key);
-        if (token == null) {
-            logger.info("Token not found for key [{}]", key);
-            throw new TokenNotFoundException();
-        }
-        if (tokenHelper.tokenExpired(token.accessToken(), 10)) {
-            logger.info("Token expired for key [{}]", key);
-            return Uni.createFrom().failure(new TokenExpiredException("Token expired", token.refreshToken()));
+    public Uni<AccessTokenResponse> checkRefresh(CachedToken token) {
+        if (token.accessTokenExpired(10)) {
+            logger.debug("Access token expired");
+            return Uni.createFrom().failure(new TokenExpiredException("Token expired", token.token().refreshToken()));
         }
-        return Uni.createFrom().item(token);
+        return Uni.createFrom().item(token.token());
     }
 
     /**
      * Remove element from cache.
      */
     public void remove(String key) {
-        this.cache.remove(key);
+        tokenRefreshScheduler.untrack(key);
+        this.store.remove(key).subscribe().with(
+            success -> { },
+            failure -> logger.warn("Could not remove token from cache. Message: [{}]", failure.getMessage())
+        );
     }
 
     /**
-     * Run through the cache, and remove "dead" entries defined by refresh_token expiry.
+     * Remove "dead" entries defined by refresh_token expiry. Runs in the background, and only visits
+     * entries that have actually expired.
      */
-    private void doCacheCleanup() {
-        int counter = 0;
-        Set<String> keys = this.cache.keySet();
-        for (String key : keys) {
-            AccessTokenResponse cachedToken = this.cache.get(key);
-            if (tokenHelper.tokenExpired(cachedToken.refreshToken(), 0)) {
-                counter++;
-                this.cache.remove(key);
-            }
+    @Scheduled(every = "${auth.proxy.cache.cleanup.interval}", concurrentExecution = ConcurrentExecution.SKIP)
+    void doCacheCleanup() {
+        long start = System.nanoTime();
+        int counter = this.store.removeExpired(System.currentTimeMillis(), tokenRefreshScheduler::untrack);
+        sweepTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        evictions.increment(counter);
+        if (counter > 0) {
+            logger.info("Cache cleanup done. Removed [{}] elements.", counter);
         }
-        logger.info("Cache cleanup done. Removed [{}] elements.", counter);
     }
 
     @PostConstruct
     public void init() {
-        this.cache = new ConcurrentHashMap<>();
-        readCounter = 0;
+        this.store = cacheMethod == CacheMethod.REDIS ? redisStore.get() : memoryStore.get();
+        this.requestLog = logSampling.sampler(logger);
+        logger.info("Using token store [{}]", cacheMethod);
+        MeterRegistry registry = metrics.registry();
+        this.evictions = registry.counter("proxy.token.cache.evictions");
+        this.sweepTimer = registry.timer("proxy.token.cache.sweep");
+        this.hits = registry.counter("proxy.token.cache.requests", "result", "hit");
+        this.misses = registry.counter("proxy.token.cache.requests", "result", "miss");
+        registry.gauge("proxy.token.cache.size", this.store, TokenStore::size);
     }
     
 }
@@ -0,0 +1,198 @@
+package dk.kofoed.proxy.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import io.quarkus.runtime.Startup;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kofoed.proxy.client.model.AccessTokenResponse;
+import dk.kofoed.proxy.domain.AuthType;
+import dk.kofoed.proxy.domain.CacheMethod;
+import dk.kofoed.proxy.domain.CachedToken;
+import dk.kofoed.proxy.exception.ProxyClientException;
+
+/**
+ * Seal tokens into cookie values when the <code>COOKIE</code> cache method is selected. Only the access_token,
+ * the refresh_token, their expiry times and the subject are kept. They are compressed, encrypted with AES-GCM and split
+ * into chunks small enough for browsers to accept. Compressors and ciphers are reused per thread.
+ */
+@Startup
+@ApplicationScoped
+public class TokenCookieCodec {
+
+    private static final Logger logger = LoggerFactory.getLogger(TokenCookieCodec.class);
+
+    private static final byte FORMAT_VERSION = 2;
+
+    /**
+     * Format of cookies sealed before the subject was kept. Still accepted, so users stay logged in on upgrade.
+     */
+    private static final byte FORMAT_VERSION_WITHOUT_SUBJECT = 1;
+
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    @ConfigProperty(name = "auth.proxy.cache.method")
+    CacheMethod cacheMethod;
+
+    @ConfigProperty(name = "auth.proxy.type")
+    AuthType authType;
+
+    @ConfigProperty(name = "auth.proxy.cache.cookie.key")
+    Optional<String> key;
+
+    @ConfigProperty(name = "auth.proxy.cache.cookie.chunk.size")
+    int chunkSize;
+
+    @ConfigProperty(name = "auth.proxy.cache.cookie.max.chunks")
+    int maxChunks;
+
+    @ConfigProperty(name = "auth.proxy.cookie.name")
+    String cookieName;
+
+    private AeadCipher cipher;
+
+    private byte[] associatedData;
+
+    /**
+     * Seal token into cookie values, in chunk order. Fails with <code>ProxyClientException</code> if the
+     * token does not fit in the configured number of chunks.
+     */
+    public List<String> encode(CachedToken token) {
+        byte[] plaintext = compress(serialize(token));
+        String sealed = Base64.getUrlEncoder().withoutPadding().encodeToString(cipher.encrypt(plaintext, associatedData));
+        int chunks = (sealed.length() + chunkSize - 1) / chunkSize;
+        if (chunks > maxChunks) {
+            logger.error("Token needs [{}] cookies of [{}] characters, but at most [{}] are allowed", chunks, chunkSize, maxChunks);
+            throw new ProxyClientException("Token too large to be stored in cookies", 500);
+        }
+        List<String> values = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            values.add(sealed.substring(i * chunkSize, Math.min(sealed.length(), (i + 1) * chunkSize)));
+        }
+        return values;
+    }
+
+    /**
+     * Open token from cookie values in chunk order. Returns <code>null</code> if values were not sealed by
+     * us, have been tampered with, or are incomplete.
+     */
+    public CachedToken decode(List<String> values) {
+        if (values.isEmpty()) {
+            return null;
+        }
+        try {
+            byte[] sealed = Base64.getUrlDecoder().decode(String.join("", values));
+            byte[] plaintext = cipher.decrypt(sealed, associatedData);
+            return plaintext == null ? null : deserialize(decompress(plaintext));
+        } catch (IllegalArgumentException | DataFormatException e) {
+            logger.warn("Could not decode token cookie. Message: [{}]", e.getMessage());
+            return null;
+        }
+    }
+
+    private byte[] serialize(CachedToken token) {
+        byte[] accessToken = token.token().accessToken().getBytes(StandardCharsets.US_ASCII);
+        byte[] refreshToken = token.hasRefreshToken() ? token.token().refreshToken().getBytes(StandardCharsets.US_ASCII) : new byte[0];
+        byte[] subject = token.subject() == null ? new byte[0] : token.subject().getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(1 + 2 * Long.BYTES + 3 * Integer.BYTES + accessToken.length + refreshToken.length + subject.length)
+            .put(FORMAT_VERSION)
+            .putLong(token.accessTokenExpiry())
+            .putLong(token.refreshTokenExpiry())
+            .putInt(accessToken.length)
+            .put(accessToken)
+            .putInt(refreshToken.length)
+            .put(refreshToken)
+            .putInt(subject.length)
+            .put(subject)
+            .array();
+    }
+
+    private CachedToken deserialize(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        byte version = buffer.get();
+        if (version != FORMAT_VERSION && version != FORMAT_VERSION_WITHOUT_SUBJECT) {
+            throw new IllegalArgumentException("Unknown token cookie format");
+        }
+        long accessTokenExpiry = buffer.getLong();
+        long refreshTokenExpiry = buffer.getLong();
+        String accessToken = readString(buffer, StandardCharsets.US_ASCII);
+        String refreshToken = readString(buffer, StandardCharsets.US_ASCII);
+        String subject = version == FORMAT_VERSION ? readString(buffer, StandardCharsets.UTF_8) : "";
+        AccessTokenResponse token = new AccessTokenResponse(
+            accessToken, 0, 0, refreshToken.isEmpty() ? null : refreshToken, null, "Bearer", null, null);
+        return new CachedToken(token, subject.isEmpty() ? null : subject, accessTokenExpiry, refreshTokenExpiry);
+    }
+
+    private String readString(ByteBuffer buffer, Charset charset) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Malformed token cookie");
+        }
+        String value = new String(buffer.array(), buffer.position(), length, charset);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private byte[] compress(byte[] data) {
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream output = new ByteArrayOutputStream(data.length);
+        byte[] buffer = new byte[1024];
+        while (!deflater.finished()) {
+            output.write(buffer, 0, deflater.deflate(buffer));
+        }
+        return output.toByteArray();
+    }
+
+    private byte[] decompress(byte[] data) throws DataFormatException {
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(data);
+        ByteArrayOutputStream output = new ByteArrayOutputStream(data.length * 2);
+        byte[] buffer = new byte[1024];
+        while (!inflater.finished()) {
+            int length = inflater.inflate(buffer);
+            if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                throw new DataFormatException("Truncated token cookie");
+            }
+            output.write(buffer, 0, length);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Fail startup if the <code>COOKIE</code> cache method is misconfigured.
+     */
+    @PostConstruct
+    void init() {
+        if (cacheMethod != CacheMethod.COOKIE) {
+            return;
+        }
+        if (authType != AuthType.COOKIE) {
+            throw new IllegalStateException("AUTHENTICATION_CACHE_METHOD COOKIE requires AUTHENTICATION_TYPE COOKIE");
+        }
+        String encodedKey = key.orElseThrow(() -> new IllegalStateException(
+            "AUTHENTICATION_CACHE_COOKIE_KEY must be set when AUTHENTICATION_CACHE_METHOD is COOKIE"));
+        this.cipher = new AeadCipher(Base64.getDecoder().decode(encodedKey.trim()), SecureRandomIds.random());
+        this.associatedData = cookieName.getBytes(StandardCharsets.UTF_8);
+    }
+
+}
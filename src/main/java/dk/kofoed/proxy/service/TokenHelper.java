@@ -1,10 +1,9 @@
 package dk.kofoed.proxy.service;
 
 import jakarta.enterprise.context.ApplicationScoped;
-import java.time.Instant;
-import java.time.temporal.ChronoUnit;
 
 import io.smallrye.jwt.auth.principal.DefaultJWTCallerPrincipal;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.eclipse.microprofile.jwt.JsonWebToken;
 import org.jose4j.jwt.JwtClaims;
 import org.jose4j.jwt.consumer.InvalidJwtException;
@@ -13,49 +12,97 @@ import org.jose4j.jwt.consumer.JwtConsumerBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.kofoed.proxy.client.model.AccessTokenResponse;
+import dk.kofoed.proxy.domain.CachedToken;
+
 @ApplicationScoped
 public class TokenHelper {
 
     private static final Logger logger = LoggerFactory.getLogger(TokenHelper.class);
+
+    /**
+     * Consumers are immutable once built, so a single instance is shared by all callers.
+     */
+    private static final JwtConsumer UNVERIFIED_CONSUMER = new JwtConsumerBuilder()
+            .setSkipAllValidators()
+            .setDisableRequireSignature()
+            .setSkipSignatureVerification()
+            .build();
+
+    @ConfigProperty(name = "auth.proxy.cache.retain.id.token")
+    boolean retainIdToken;
     
     /**
      * Parse JWT string without expiry and signature validation.
      */
     public JsonWebToken parseUnverifiedToken(String jwt) throws InvalidJwtException {
-        JwtConsumer consumer = new JwtConsumerBuilder()
-                .setSkipAllValidators()
-                .setDisableRequireSignature()
-                .setSkipSignatureVerification()
-                .build();
-
-        JwtClaims claimsSet = consumer.processToClaims(jwt);
+        JwtClaims claimsSet = UNVERIFIED_CONSUMER.processToClaims(jwt);
 
         return new DefaultJWTCallerPrincipal(jwt, "JWT", claimsSet);
     }
 
     /**
-     * Check if any given token (JWT) is expired or not. 
-     * Will return true if invalid token is passed.
+     * Wrap an access token response in a cache entry, parsing each token exactly once to find its expiry, and
+     * the subject of the access_token. Tokens that are not JWTs (e.g. opaque refresh tokens) fall back to the
+     * <code>expires_in</code> values of the token response, and opaque access_tokens have no subject. Only the
+     * fields needed for proxying are kept (plus the id_token if configured), as cache entries make up most of
+     * the heap with many sessions.
+     */
+    public CachedToken toCacheEntry(AccessTokenResponse response) {
+        AccessTokenResponse token = compact(response);
+        long now = System.currentTimeMillis();
+        JsonWebToken accessToken = parseOrNull(token.accessToken());
+        long accessTokenExpiry = accessToken == null
+            ? fallbackExpiry(now, token.expireSeconds())
+            : accessToken.getExpirationTime() * 1000;
+        long refreshTokenExpiry = token.refreshToken() == null
+            ? accessTokenExpiry
+            : getExpirationTime(token.refreshToken(), fallbackExpiry(now, token.refreshExpireSeconds()));
+        return new CachedToken(token, accessToken == null ? null : accessToken.getSubject(), accessTokenExpiry, refreshTokenExpiry);
+    }
+
+    /**
+     * Get expiration time of a token (JWT) as epoch millis. Returns <code>fallback</code> if token cannot be parsed.
      * Will NOT check token signature.
-     * 
-     * @param token - string to be parsed and checked.
-     * @param gapSeconds - seconds to use as "gap" when checking expiration time. 
      */
-    public boolean tokenExpired(String token, long gapSeconds) {
+    public long getExpirationTime(String token, long fallback) {
 
         if (token.startsWith("Bearer")) {
             token = token.substring(7);
         }
 
         try {
-            JsonWebToken parsedToken = parseUnverifiedToken(token);
-            Instant expirationTime = Instant.ofEpochSecond(parsedToken.getExpirationTime()).minus(gapSeconds, ChronoUnit.SECONDS);
-            return Instant.now().isAfter(expirationTime);
+            return parseUnverifiedToken(token).getExpirationTime() * 1000;
         } catch (InvalidJwtException e) {
-            logger.warn("Could not parse token - marking as expired. Message: [{}]", e.getMessage());
-            return true;
+            logger.warn("Could not parse token - using fallback expiry. Message: [{}]", e.getMessage());
+            return fallback;
         }
+    }
+
+    private JsonWebToken parseOrNull(String token) {
+        try {
+            return parseUnverifiedToken(token);
+        } catch (InvalidJwtException e) {
+            logger.warn("Could not parse access token - using fallback expiry. Message: [{}]", e.getMessage());
+            return null;
+        }
+    }
+
+    private AccessTokenResponse compact(AccessTokenResponse response) {
+        return new AccessTokenResponse(
+            response.accessToken(),
+            response.expireSeconds(),
+            response.refreshExpireSeconds(),
+            response.refreshToken(),
+            retainIdToken ? response.idToken() : null,
+            null,
+            null,
+            null
+        );
+    }
 
+    private long fallbackExpiry(long now, int expireSeconds) {
+        return expireSeconds > 0 ? now + expireSeconds * 1000L : 0;
     }
 
 }
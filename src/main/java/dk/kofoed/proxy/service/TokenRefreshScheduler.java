@@ -0,0 +1,153 @@
+package dk.kofoed.proxy.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.scheduler.Scheduled;
+import io.quarkus.scheduler.Scheduled.ConcurrentExecution;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kofoed.proxy.domain.CachedToken;
+import dk.kofoed.proxy.exception.TokenNotFoundException;
+import dk.kofoed.proxy.service.store.ExpiryIndex;
+
+/**
+ * Refresh access tokens of active sessions in the background, a configurable lead time before they expire,
+ * so requests never have to go out with an expired token. A session is active if it has been used since
+ * its access_token was last refreshed. Refreshes are started in batches of limited size per run.
+ */
+@ApplicationScoped
+public class TokenRefreshScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(TokenRefreshScheduler.class);
+
+    private static final long DUE_RESOLUTION_MILLIS = 1000;
+
+    @ConfigProperty(name = "auth.proxy.refresh.proactive.enabled")
+    boolean enabled;
+
+    @ConfigProperty(name = "auth.proxy.refresh.proactive.lead.seconds")
+    long leadSeconds;
+
+    @ConfigProperty(name = "auth.proxy.refresh.proactive.batch.size")
+    int batchSize;
+
+    @Inject
+    TokenCache tokenCache;
+
+    @Inject
+    TokenRefreshService tokenRefreshService;
+
+    @Inject
+    ProxyMetrics metrics;
+
+    private Map<String, Long> dueTimes;
+
+    private ExpiryIndex dueIndex;
+
+    private Counter refreshed;
+
+    private Counter failed;
+
+    private Timer lag;
+
+    /**
+     * Register session as active, and schedule a refresh of its access_token. Calling this repeatedly for the
+     * same token is cheap: the session is only indexed again when its access_token has changed.
+     */
+    public void track(String cacheKey, CachedToken token) {
+        if (!enabled || !token.hasRefreshToken()) {
+            return;
+        }
+        long due = token.accessTokenExpiry() - leadSeconds * 1000;
+        Long previous = this.dueTimes.get(cacheKey);
+        if (previous == null || previous != due) {
+            this.dueTimes.put(cacheKey, due);
+            this.dueIndex.add(cacheKey, due);
+        }
+    }
+
+    /**
+     * Stop refreshing a session that has been removed, has expired or has been rotated to a new session ID.
+     */
+    public void untrack(String cacheKey) {
+        Long due = this.dueTimes.remove(cacheKey);
+        if (due != null) {
+            this.dueIndex.remove(cacheKey, due);
+        }
+    }
+
+    /**
+     * Start refreshes for sessions that are due. Sessions exceeding the batch size are kept for the next run.
+     */
+    @Scheduled(every = "${auth.proxy.refresh.proactive.interval}", concurrentExecution = ConcurrentExecution.SKIP)
+    void refreshDueTokens() {
+        if (!enabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        List<String> due = new ArrayList<>();
+        this.dueIndex.pollExpired(now, due::add);
+
+        int started = 0;
+        for (String cacheKey : due) {
+            Long dueTime = this.dueTimes.get(cacheKey);
+            if (dueTime == null || dueTime > now) {
+                // session was removed, or its token was refreshed and re-scheduled after it was indexed
+                continue;
+            }
+            if (started == batchSize) {
+                this.dueIndex.add(cacheKey, now);
+                continue;
+            }
+            if (this.dueTimes.remove(cacheKey, dueTime)) {
+                started++;
+                lag.record(now - dueTime, TimeUnit.MILLISECONDS);
+                refresh(cacheKey);
+            }
+        }
+        if (started > 0) {
+            logger.info("Started background refresh of [{}] access tokens. [{}] sessions postponed.",
+                started, due.size() - started);
+        }
+    }
+
+    private void refresh(String cacheKey) {
+        tokenCache.get(cacheKey)
+            .chain(token -> tokenRefreshService.refresh(cacheKey, token.token().refreshToken()))
+            .subscribe().with(
+                token -> refreshed.increment(),
+                failure -> {
+                    if (failure instanceof TokenNotFoundException) {
+                        // session was removed after it was found due
+                        return;
+                    }
+                    failed.increment();
+                    logger.warn("Background refresh of access_token failed. Message: [{}]", failure.getMessage());
+                }
+            );
+    }
+
+    @PostConstruct
+    void init() {
+        this.dueTimes = new ConcurrentHashMap<>();
+        this.dueIndex = new ExpiryIndex(DUE_RESOLUTION_MILLIS);
+        MeterRegistry registry = metrics.registry();
+        this.refreshed = registry.counter("proxy.token.refresh.background", "outcome", "success");
+        this.failed = registry.counter("proxy.token.refresh.background", "outcome", "failure");
+        this.lag = registry.timer("proxy.token.refresh.background.lag");
+        registry.gaugeMapSize("proxy.token.refresh.background.tracked", List.of(), this.dueTimes);
+    }
+
+}
@@ -0,0 +1,98 @@
+package dk.kofoed.proxy.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.smallrye.mutiny.Uni;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import dk.kofoed.proxy.client.model.AccessTokenResponse;
+import dk.kofoed.proxy.domain.AuthType;
+
+/**
+ * Refresh access tokens with at most one token endpoint call in flight per cache key. Concurrent callers
+ * for the same session share the same pending result instead of each sending their own refresh_token
+ * grant, which would fail as soon as the OIDC provider rotates refresh tokens. With session rotation enabled
+ * (cookie authentication only), the refreshed token is stored under a new session ID. Sessions that are not
+ * cached (<code>COOKIE</code> cache method) keep the result of a refresh for the rotation grace period, so a
+ * request still carrying the old cookie reuses it instead of sending the already used refresh_token again.
+ */
+@ApplicationScoped
+public class TokenRefreshService {
+
+    private Map<String, Uni<AccessTokenResponse>> inFlight;
+
+    private Cache<String, AccessTokenResponse> recentUncached;
+
+    private boolean rotateSessions;
+
+    @ConfigProperty(name = "auth.proxy.session.rotation.enabled")
+    boolean rotationEnabled;
+
+    @ConfigProperty(name = "auth.proxy.session.rotation.grace.seconds")
+    long rotationGraceSeconds;
+
+    @ConfigProperty(name = "auth.proxy.type")
+    AuthType authType;
+
+    @Inject
+    AuthService authService;
+
+    @Inject
+    TokenCache tokenCache;
+
+
+    /**
+     * Refresh access_token for cache key, or join the refresh already in progress for that key.
+     * The refreshed token is put in the cache before the returned <code>Uni</code> emits it.
+     */
+    public Uni<AccessTokenResponse> refresh(String cacheKey, String refreshToken) {
+        return this.inFlight.computeIfAbsent(cacheKey, key -> newRefresh(key, refreshToken,
+            token -> rotateSessions ? tokenCache.rotate(key, token) : tokenCache.put(key, token)));
+    }
+
+    /**
+     * Refresh access_token of a session that is not kept in the cache (<code>COOKIE</code> cache method).
+     * Concurrent callers holding the same refresh_token share one refresh, and callers arriving within the rotation
+     * grace period after it completed get the same result. Storing the token is left to the caller.
+     */
+    public Uni<AccessTokenResponse> refreshUncached(String refreshToken) {
+        AccessTokenResponse recent = this.recentUncached.getIfPresent(refreshToken);
+        if (recent != null) {
+            return Uni.createFrom().item(recent);
+        }
+        return this.inFlight.computeIfAbsent(refreshToken, key -> newRefresh(key, refreshToken,
+            token -> Uni.createFrom().voidItem().invoke(() -> this.recentUncached.put(refreshToken, token))));
+    }
+
+    private Uni<AccessTokenResponse> newRefresh(
+        String key,
+        String refreshToken,
+        Function<AccessTokenResponse, Uni<?>> store) {
+
+        return authService.refreshAccessToken(refreshToken)
+            .onFailure().retry()
+            .withBackOff(Duration.ofMillis(50), Duration.ofSeconds(1))
+            .atMost(5)
+            .call(store)
+            .onTermination().invoke(() -> this.inFlight.remove(key))
+            .memoize().indefinitely();
+    }
+
+    @PostConstruct
+    void init() {
+        this.inFlight = new ConcurrentHashMap<>();
+        this.recentUncached = Caffeine.newBuilder()
+            .expireAfterWrite(Duration.ofSeconds(rotationGraceSeconds))
+            .build();
+        this.rotateSessions = rotationEnabled && authType == AuthType.COOKIE;
+    }
+
+}
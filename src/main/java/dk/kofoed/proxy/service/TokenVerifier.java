@@ -0,0 +1,160 @@
+package dk.kofoed.proxy.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import java.security.Key;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.smallrye.mutiny.Uni;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jose4j.jwk.JsonWebKey;
+import org.jose4j.jwk.JsonWebKeySet;
+import org.jose4j.jwk.PublicJsonWebKey;
+import org.jose4j.jws.JsonWebSignature;
+import org.jose4j.jwt.consumer.InvalidJwtException;
+import org.jose4j.jwt.consumer.JwtConsumer;
+import org.jose4j.jwt.consumer.JwtConsumerBuilder;
+import org.jose4j.jwx.JsonWebStructure;
+import org.jose4j.lang.JoseException;
+import org.jose4j.lang.UnresolvableKeyException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kofoed.proxy.exception.TokenVerificationException;
+
+/**
+ * Verify token signatures locally against the OIDC provider's JSON Web Key Set. Keys are fetched from the
+ * <code>jwks_uri</code> and cached as ready-to-use verification keys. An unknown key ID triggers a new fetch
+ * (at most one in flight, and no more often than the configured interval) to pick up rotated keys.
+ */
+@ApplicationScoped
+public class TokenVerifier {
+
+    private static final Logger logger = LoggerFactory.getLogger(TokenVerifier.class);
+
+    @ConfigProperty(name = "auth.proxy.token.verify.enabled")
+    boolean enabled;
+
+    @ConfigProperty(name = "auth.proxy.token.verify.jwks.refresh.interval.seconds")
+    long minRefreshIntervalSeconds;
+
+    @Inject
+    AuthService authService;
+
+    private volatile VerificationKeys keys = new VerificationKeys(Map.of(), null);
+
+    private volatile long lastRefresh;
+
+    private final AtomicReference<Uni<Void>> pendingRefresh = new AtomicReference<>();
+
+    private JwtConsumer consumer;
+
+    /**
+     * Verify signature of a JWT. Emits a <code>TokenVerificationException</code> failure if the token is not
+     * signed by any of the provider's keys. Always succeeds when verification is disabled.
+     */
+    public Uni<Void> verify(String jwt) {
+        if (!enabled) {
+            return Uni.createFrom().voidItem();
+        }
+        String keyId;
+        try {
+            keyId = JsonWebStructure.fromCompactSerialization(jwt).getKeyIdHeaderValue();
+        } catch (JoseException e) {
+            return Uni.createFrom().failure(new TokenVerificationException("Token is not a valid JWS: " + e.getMessage()));
+        }
+        if (keys.find(keyId) == null) {
+            return refreshKeys().chain(() -> verifySignature(jwt));
+        }
+        return verifySignature(jwt);
+    }
+
+    private Uni<Void> verifySignature(String jwt) {
+        try {
+            consumer.processToClaims(jwt);
+            return Uni.createFrom().voidItem();
+        } catch (InvalidJwtException e) {
+            logger.warn("Token signature verification failed. Message: [{}]", e.getMessage());
+            return Uni.createFrom().failure(new TokenVerificationException("Token signature verification failed"));
+        }
+    }
+
+    /**
+     * Fetch key set, unless a fetch is already in flight or the last one was too recent.
+     */
+    private Uni<Void> refreshKeys() {
+        Uni<Void> pending = pendingRefresh.get();
+        if (pending != null) {
+            return pending;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastRefresh < minRefreshIntervalSeconds * 1000) {
+            return Uni.createFrom().voidItem();
+        }
+        Uni<Void> refresh = authService.getJsonWebKeySet()
+            .invoke(this::loadKeys)
+            .onFailure().invoke(failure -> logger.error("Could not fetch JSON Web Key Set. Message: [{}]", failure.getMessage()))
+            .onFailure().recoverWithNull()
+            .replaceWithVoid()
+            .onTermination().invoke(() -> pendingRefresh.set(null))
+            .memoize().indefinitely();
+        if (!pendingRefresh.compareAndSet(null, refresh)) {
+            pending = pendingRefresh.get();
+            return pending == null ? Uni.createFrom().voidItem() : pending;
+        }
+        lastRefresh = now;
+        return refresh;
+    }
+
+    private void loadKeys(String json) {
+        try {
+            Map<String, Key> keysById = new HashMap<>();
+            List<JsonWebKey> jwks = new JsonWebKeySet(json).getJsonWebKeys();
+            Key singleKey = null;
+            for (JsonWebKey jwk : jwks) {
+                Key key = jwk instanceof PublicJsonWebKey publicJwk ? publicJwk.getPublicKey() : jwk.getKey();
+                if (jwk.getKeyId() != null) {
+                    keysById.put(jwk.getKeyId(), key);
+                }
+                singleKey = key;
+            }
+            this.keys = new VerificationKeys(Map.copyOf(keysById), jwks.size() == 1 ? singleKey : null);
+            logger.info("Loaded [{}] keys from JSON Web Key Set", keysById.size());
+        } catch (JoseException e) {
+            logger.error("Could not parse JSON Web Key Set. Message: [{}]", e.getMessage());
+        }
+    }
+
+    private Key resolveKey(JsonWebSignature jws) throws UnresolvableKeyException {
+        Key key = keys.find(jws.getKeyIdHeaderValue());
+        if (key == null) {
+            throw new UnresolvableKeyException("No verification key for key ID [" + jws.getKeyIdHeaderValue() + "]");
+        }
+        return key;
+    }
+
+    @PostConstruct
+    void init() {
+        // only signatures are checked here, token expiry is handled by the cache
+        this.consumer = new JwtConsumerBuilder()
+            .setSkipAllValidators()
+            .setVerificationKeyResolver((jws, nestingContext) -> resolveKey(jws))
+            .build();
+    }
+
+    /**
+     * Verification keys by key ID. Tokens without a key ID can only be verified if the set has a single key.
+     */
+    private record VerificationKeys(Map<String, Key> byId, Key singleKey) {
+
+        Key find(String keyId) {
+            return keyId == null ? singleKey : byId.get(keyId);
+        }
+
+    }
+
+}
@@ -0,0 +1,64 @@
+package dk.kofoed.proxy.service.store;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+
+/**
+ * Keys grouped in buckets ordered by expiry time. Maintained on put/remove, so finding expired keys only
+ * touches the buckets that have actually expired instead of scanning every entry.
+ * Callers must re-check expiry of the current entry before evicting, since a key may have been
+ * replaced with a later expiry after it was indexed.
+ */
+public class ExpiryIndex {
+
+    private final long resolutionMillis;
+
+    private final NavigableMap<Long, Set<String>> buckets = new ConcurrentSkipListMap<>();
+
+    public ExpiryIndex(long resolutionMillis) {
+        this.resolutionMillis = resolutionMillis;
+    }
+
+    public void add(String key, long expiry) {
+        buckets.computeIfAbsent(bucketOf(expiry), bucket -> ConcurrentHashMap.newKeySet()).add(key);
+    }
+
+    public void remove(String key, long expiry) {
+        Set<String> keys = buckets.get(bucketOf(expiry));
+        if (keys != null) {
+            keys.remove(key);
+        }
+    }
+
+    /**
+     * Re-index key whose expiry changed. The key stays in its bucket if both expiry times fall in the same one.
+     */
+    public void move(String key, long previousExpiry, long expiry) {
+        if (bucketOf(previousExpiry) != bucketOf(expiry)) {
+            remove(key, previousExpiry);
+        }
+        add(key, expiry);
+    }
+
+    /**
+     * Remove all buckets that lie entirely before <code>now</code> and hand their keys to <code>consumer</code>.
+     */
+    public void pollExpired(long now, Consumer<String> consumer) {
+        Iterator<Map.Entry<Long, Set<String>>> expired = buckets.headMap(bucketOf(now), false).entrySet().iterator();
+        while (expired.hasNext()) {
+            Set<String> keys = expired.next().getValue();
+            expired.remove();
+            keys.forEach(consumer);
+        }
+    }
+
+    private long bucketOf(long expiry) {
+        return Math.floorDiv(expiry, resolutionMillis);
+    }
+
+}
@@ -0,0 +1,101 @@
+package dk.kofoed.proxy.service.store;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import io.smallrye.mutiny.Uni;
+
+import dk.kofoed.proxy.domain.CachedToken;
+
+/**
+ * In-process token store. Sessions are local to this instance, and lost on restart unless persistence to a
+ * local <code>TokenJournal</code> is enabled.
+ */
+@ApplicationScoped
+public class MemoryTokenStore implements TokenStore {
+
+    private static final long EXPIRY_RESOLUTION_MILLIS = 1000;
+
+    private Map<String, CachedToken> cache;
+
+    private ExpiryIndex expiryIndex;
+
+    private boolean persistent;
+
+    @Inject
+    TokenJournal journal;
+
+    @Override
+    public Uni<CachedToken> get(String key) {
+        return Uni.createFrom().item(this.cache.get(key));
+    }
+
+    @Override
+    public Uni<Void> put(String key, CachedToken token) {
+        CachedToken previous = this.cache.put(key, token);
+        if (previous == null) {
+            this.expiryIndex.add(key, token.expiry());
+        } else {
+            this.expiryIndex.move(key, previous.expiry(), token.expiry());
+        }
+        if (persistent) {
+            this.journal.put(key, token, this.cache);
+        }
+        return Uni.createFrom().voidItem();
+    }
+
+    @Override
+    public Uni<Void> remove(String key) {
+        CachedToken previous = this.cache.remove(key);
+        if (previous != null) {
+            this.expiryIndex.remove(key, previous.expiry());
+            if (persistent) {
+                this.journal.remove(key, this.cache);
+            }
+        }
+        return Uni.createFrom().voidItem();
+    }
+
+    @Override
+    public int removeExpired(long now, Consumer<String> expired) {
+        AtomicInteger counter = new AtomicInteger();
+        this.expiryIndex.pollExpired(now, key -> this.cache.computeIfPresent(key, (k, token) -> {
+            if (now > token.expiry()) {
+                counter.incrementAndGet();
+                expired.accept(key);
+                return null;
+            }
+            return token;
+        }));
+        if (persistent) {
+            // expired entries need no remove records, as they are skipped on replay anyway
+            this.journal.maintain(this.cache);
+        }
+        return counter.get();
+    }
+
+    @Override
+    public int size() {
+        return this.cache.size();
+    }
+
+    /**
+     * Restore sessions from the journal, if enabled. Runs when <code>TokenCache</code> is created at startup.
+     */
+    @PostConstruct
+    void init() {
+        this.cache = new ConcurrentHashMap<>();
+        this.expiryIndex = new ExpiryIndex(EXPIRY_RESOLUTION_MILLIS);
+        this.persistent = journal.enabled();
+        if (persistent) {
+            this.journal.open(this.cache);
+            this.cache.forEach((key, token) -> this.expiryIndex.add(key, token.expiry()));
+        }
+    }
+
+}
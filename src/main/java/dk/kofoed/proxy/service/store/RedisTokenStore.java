@@ -0,0 +1,191 @@
+package dk.kofoed.proxy.service.store;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.redis.datasource.ReactiveRedisDataSource;
+import io.quarkus.redis.datasource.value.ReactiveValueCommands;
+import io.quarkus.redis.datasource.value.SetArgs;
+import io.smallrye.mutiny.Uni;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kofoed.proxy.domain.CachedToken;
+
+/**
+ * Token store shared by all proxy instances through Redis. Entries expire in Redis together with their
+ * refresh_token, or after a fixed TTL if the expiry of the tokens is unknown (opaque tokens without
+ * <code>expires_in</code>). A local near-cache keeps the hot read path in-process; changes made by one instance are
+ * broadcast on a pub/sub channel so other instances drop their near-cache copies.
+ */
+@ApplicationScoped
+public class RedisTokenStore implements TokenStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisTokenStore.class);
+
+    private static final String SEPARATOR = "|";
+
+    private static final long EXPIRY_RESOLUTION_MILLIS = 1000;
+
+    @ConfigProperty(name = "auth.proxy.cache.redis.key.prefix")
+    String keyPrefix;
+
+    @ConfigProperty(name = "auth.proxy.cache.redis.channel")
+    String channel;
+
+    @ConfigProperty(name = "auth.proxy.cache.near.ttl.seconds")
+    long nearCacheTtlSeconds;
+
+    @ConfigProperty(name = "auth.proxy.cache.redis.fallback.ttl.seconds")
+    long fallbackTtlSeconds;
+
+    @Inject
+    ReactiveRedisDataSource redis;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    private ReactiveValueCommands<String, String> values;
+
+    private Map<String, NearCacheEntry> nearCache;
+
+    private ExpiryIndex expiryIndex;
+
+    private String instanceId;
+
+    @Override
+    public Uni<CachedToken> get(String key) {
+        NearCacheEntry entry = this.nearCache.get(key);
+        if (entry != null && System.currentTimeMillis() < entry.validUntil()) {
+            return Uni.createFrom().item(entry.token());
+        }
+        return values.get(keyPrefix + key).map(json -> {
+            CachedToken token = json == null ? null : deserialize(json);
+            if (token == null) {
+                this.nearCache.remove(key);
+            } else {
+                putNearCache(key, token);
+            }
+            return token;
+        });
+    }
+
+    @Override
+    public Uni<Void> put(String key, CachedToken token) {
+        putNearCache(key, token);
+        return values.set(keyPrefix + key, serialize(token), expiryArgs(token))
+            .chain(() -> publishInvalidation(key));
+    }
+
+    @Override
+    public Uni<Void> remove(String key) {
+        this.nearCache.remove(key);
+        return redis.key().del(keyPrefix + key)
+            .chain(() -> publishInvalidation(key));
+    }
+
+    /**
+     * Expiry of shared entries is handled by Redis, so only the near-cache needs housekeeping.
+     */
+    @Override
+    public int removeExpired(long now, Consumer<String> expired) {
+        AtomicInteger counter = new AtomicInteger();
+        this.expiryIndex.pollExpired(now, key -> this.nearCache.computeIfPresent(key, (k, entry) -> {
+            if (now > entry.validUntil()) {
+                counter.incrementAndGet();
+                if (now > entry.token().expiry()) {
+                    // the session itself has expired, not just the near-cache copy
+                    expired.accept(key);
+                }
+                return null;
+            }
+            return entry;
+        }));
+        return counter.get();
+    }
+
+    @Override
+    public int size() {
+        return this.nearCache.size();
+    }
+
+    /**
+     * Near-cache entries are indexed by when they go stale. Entries removed before that are simply
+     * skipped when their bucket is swept.
+     */
+    private void putNearCache(String key, CachedToken token) {
+        long validUntil = Math.min(nearCacheValidUntil(), token.expiry());
+        this.expiryIndex.add(key, validUntil);
+        this.nearCache.put(key, new NearCacheEntry(token, validUntil));
+    }
+
+    /**
+     * Expire entry with its tokens. Redis rejects, or drops right away, entries with an expiry in the past, so
+     * entries without a known expiry get the fallback TTL.
+     */
+    private SetArgs expiryArgs(CachedToken token) {
+        if (token.expiry() > System.currentTimeMillis()) {
+            return new SetArgs().pxAt(token.expiry());
+        }
+        logger.debug("Token expiry unknown - storing it for [{}] seconds", fallbackTtlSeconds);
+        return new SetArgs().ex(fallbackTtlSeconds);
+    }
+
+    private Uni<Void> publishInvalidation(String key) {
+        return redis.pubsub(String.class).publish(channel, instanceId + SEPARATOR + key);
+    }
+
+    private void onInvalidation(String message) {
+        int separator = message.indexOf(SEPARATOR);
+        if (separator > 0 && !message.startsWith(instanceId + SEPARATOR)) {
+            this.nearCache.remove(message.substring(separator + 1));
+        }
+    }
+
+    private long nearCacheValidUntil() {
+        return System.currentTimeMillis() + nearCacheTtlSeconds * 1000;
+    }
+
+    private String serialize(CachedToken token) {
+        try {
+            return objectMapper.writeValueAsString(token);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not serialize cache entry", e);
+        }
+    }
+
+    private CachedToken deserialize(String json) {
+        try {
+            return objectMapper.readValue(json, CachedToken.class);
+        } catch (JsonProcessingException e) {
+            logger.warn("Could not deserialize cache entry - ignoring it. Message: [{}]", e.getMessage());
+            return null;
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        this.nearCache = new ConcurrentHashMap<>();
+        this.expiryIndex = new ExpiryIndex(EXPIRY_RESOLUTION_MILLIS);
+        this.instanceId = UUID.randomUUID().toString();
+        this.values = redis.value(String.class);
+        redis.pubsub(String.class)
+            .subscribe(channel, this::onInvalidation)
+            .subscribe().with(
+                subscriber -> logger.info("Subscribed to token cache invalidation channel [{}]", channel),
+                failure -> logger.error("Could not subscribe to token cache invalidation channel [{}]", channel, failure)
+            );
+    }
+
+    private record NearCacheEntry(CachedToken token, long validUntil) {}
+
+}
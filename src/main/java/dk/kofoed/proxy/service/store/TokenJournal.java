@@ -0,0 +1,314 @@
+package dk.kofoed.proxy.service.store;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kofoed.proxy.client.model.AccessTokenResponse;
+import dk.kofoed.proxy.domain.CachedToken;
+import dk.kofoed.proxy.service.AeadCipher;
+import dk.kofoed.proxy.service.SecureRandomIds;
+
+/**
+ * Append-only log of token store changes in a memory-mapped file, so the in-memory store survives restarts.
+ * Each record is encrypted on its own, and is only made visible by writing its length after its payload, so a
+ * crash mid-write leaves a log that replays up to the last complete record. When the file fills up, it is
+ * compacted: rewritten with only the live entries, and swapped in atomically.
+ * <p>
+ * Once opened, the log is only touched by a single writer thread. Callers just queue their records, so
+ * encryption, compaction and flushing to disk never run on, or block, the request path. Records still queued
+ * when the host goes down are lost, like records not yet flushed.
+ */
+@ApplicationScoped
+public class TokenJournal {
+
+    private static final Logger logger = LoggerFactory.getLogger(TokenJournal.class);
+
+    private static final byte PUT = 1;
+
+    private static final byte REMOVE = 2;
+
+    private static final byte[] ASSOCIATED_DATA = "q-oidc-proxy:journal:1".getBytes(StandardCharsets.US_ASCII);
+
+    @ConfigProperty(name = "auth.proxy.cache.persistence.enabled")
+    boolean enabled;
+
+    @ConfigProperty(name = "auth.proxy.cache.persistence.path")
+    Path path;
+
+    @ConfigProperty(name = "auth.proxy.cache.persistence.key")
+    Optional<String> key;
+
+    @ConfigProperty(name = "auth.proxy.cache.persistence.size")
+    int size;
+
+    private AeadCipher cipher;
+
+    private MappedByteBuffer log;
+
+    private ExecutorService writer;
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * Open log and replay it into <code>store</code>. Entries that expired while the proxy was down are
+     * skipped. The log is compacted right away, so it starts out holding live entries only.
+     */
+    public void open(Map<String, CachedToken> store) {
+        String encodedKey = key.orElseThrow(() -> new IllegalStateException(
+            "AUTHENTICATION_CACHE_PERSISTENCE_KEY must be set when AUTHENTICATION_CACHE_PERSISTENCE is enabled"));
+        this.cipher = new AeadCipher(Base64.getDecoder().decode(encodedKey.trim()), SecureRandomIds.random());
+        long start = System.nanoTime();
+        try {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+            if (Files.exists(path)) {
+                replay(map(path), store::put, store::remove);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read token journal " + path, e);
+        }
+        long now = System.currentTimeMillis();
+        store.values().removeIf(token -> now > token.expiry());
+        compact(store);
+        this.writer = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "token-journal-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.info("Restored [{}] sessions from token journal in [{}] ms", store.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Queue a put record. If the log is full, it is compacted from <code>store</code>, which must already
+     * contain the new entry.
+     */
+    public void put(String key, CachedToken token, Map<String, CachedToken> store) {
+        submit(() -> append(encodePut(key, token), store));
+    }
+
+    /**
+     * Queue a remove record. If the log is full, it is compacted from <code>store</code>.
+     */
+    public void remove(String key, Map<String, CachedToken> store) {
+        submit(() -> {
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            append(ByteBuffer.allocate(1 + Integer.BYTES + keyBytes.length).put(REMOVE).putInt(keyBytes.length).put(keyBytes).array(),
+                store);
+        });
+    }
+
+    /**
+     * Queue compaction of the log if more than half of it is used, and a flush of written records to disk.
+     * Called in the background, so compaction rarely has to happen on a full log. The OS flushes mapped pages
+     * by itself, so flushing only narrows the window of records lost if the host (not just the process) goes down.
+     */
+    public void maintain(Map<String, CachedToken> store) {
+        submit(() -> {
+            if (this.log.position() > size / 2) {
+                compact(store);
+            }
+            flush();
+        });
+    }
+
+    private void submit(Runnable task) {
+        this.writer.execute(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.error("Token journal write failed", e);
+            }
+        });
+    }
+
+    /**
+     * Rewrite log with the live entries of <code>store</code> only. Runs on the writer thread, or on the
+     * startup thread before the writer exists.
+     */
+    private void compact(Map<String, CachedToken> store) {
+        try {
+            Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+            Files.deleteIfExists(compacted);
+            MappedByteBuffer buffer = map(compacted);
+            for (Map.Entry<String, CachedToken> entry : store.entrySet()) {
+                if (!write(buffer, cipher.encrypt(encodePut(entry.getKey(), entry.getValue()), ASSOCIATED_DATA))) {
+                    throw new IllegalStateException("Live sessions do not fit in token journal of [" + size + "] bytes");
+                }
+            }
+            buffer.force();
+            Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            this.log = buffer;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not compact token journal " + path, e);
+        }
+    }
+
+    private void flush() {
+        MappedByteBuffer current = this.log;
+        if (current != null) {
+            current.force();
+        }
+    }
+
+    private void append(byte[] plaintext, Map<String, CachedToken> store) {
+        byte[] record = cipher.encrypt(plaintext, ASSOCIATED_DATA);
+        if (!write(this.log, record)) {
+            // the store already reflects this change, so compacting it covers the record as well
+            compact(store);
+        }
+    }
+
+    /**
+     * Write record at current position: payload first, then its length, which makes it visible to replay.
+     */
+    private boolean write(MappedByteBuffer buffer, byte[] record) {
+        int position = buffer.position();
+        if (buffer.remaining() < 2 * Integer.BYTES + record.length) {
+            return false;
+        }
+        buffer.position(position + Integer.BYTES);
+        buffer.put(record);
+        buffer.putInt(position, record.length);
+        return true;
+    }
+
+    private void replay(MappedByteBuffer buffer, BiConsumer<String, CachedToken> put, Consumer<String> remove) {
+        int records = 0;
+        while (buffer.remaining() >= Integer.BYTES) {
+            int length = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                break;
+            }
+            byte[] record = new byte[length];
+            buffer.get(record);
+            byte[] plaintext = cipher.decrypt(record, ASSOCIATED_DATA);
+            if (plaintext == null) {
+                logger.warn("Token journal record [{}] could not be decrypted. Stopping replay.", records);
+                break;
+            }
+            ByteBuffer data = ByteBuffer.wrap(plaintext);
+            byte operation = data.get();
+            String key = readString(data);
+            if (operation == PUT) {
+                put.accept(key, decodeToken(data));
+            } else {
+                remove.accept(key);
+            }
+            records++;
+        }
+        logger.info("Replayed [{}] token journal records", records);
+    }
+
+    private byte[] encodePut(String key, CachedToken token) {
+        AccessTokenResponse response = token.token();
+        byte[][] strings = {
+            key.getBytes(StandardCharsets.UTF_8),
+            bytesOf(response.accessToken()),
+            bytesOf(response.refreshToken()),
+            bytesOf(response.idToken()),
+            bytesOf(token.successor()),
+            bytesOf(token.subject())
+        };
+        int length = 1 + 2 * Long.BYTES + 2 * Integer.BYTES;
+        for (byte[] string : strings) {
+            length += Integer.BYTES + (string == null ? 0 : string.length);
+        }
+        ByteBuffer data = ByteBuffer.allocate(length).put(PUT);
+        writeString(data, strings[0]);
+        data.putLong(token.accessTokenExpiry())
+            .putLong(token.refreshTokenExpiry())
+            .putInt(response.expireSeconds())
+            .putInt(response.refreshExpireSeconds());
+        for (int i = 1; i < strings.length; i++) {
+            writeString(data, strings[i]);
+        }
+        return data.array();
+    }
+
+    private CachedToken decodeToken(ByteBuffer data) {
+        long accessTokenExpiry = data.getLong();
+        long refreshTokenExpiry = data.getLong();
+        int expireSeconds = data.getInt();
+        int refreshExpireSeconds = data.getInt();
+        String accessToken = readString(data);
+        String refreshToken = readString(data);
+        String idToken = readString(data);
+        String successor = readString(data);
+        // records written before the subject was kept end here
+        String subject = data.hasRemaining() ? readString(data) : null;
+        AccessTokenResponse response = new AccessTokenResponse(
+            accessToken, expireSeconds, refreshExpireSeconds, refreshToken, idToken, null, null, null);
+        return new CachedToken(response, subject, accessTokenExpiry, refreshTokenExpiry, successor);
+    }
+
+    private byte[] bytesOf(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void writeString(ByteBuffer data, byte[] value) {
+        if (value == null) {
+            data.putInt(-1);
+        } else {
+            data.putInt(value.length).put(value);
+        }
+    }
+
+    private String readString(ByteBuffer data) {
+        int length = data.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(data.array(), data.position(), length, StandardCharsets.UTF_8);
+        data.position(data.position() + length);
+        return value;
+    }
+
+    private MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * Write queued records and flush them to disk.
+     */
+    @PreDestroy
+    void close() {
+        if (this.writer == null) {
+            return;
+        }
+        this.writer.shutdown();
+        try {
+            if (!this.writer.awaitTermination(10, TimeUnit.SECONDS)) {
+                logger.warn("Token journal writer did not finish queued records in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+}
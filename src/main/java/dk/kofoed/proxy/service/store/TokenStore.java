@@ -0,0 +1,41 @@
+package dk.kofoed.proxy.service.store;
+
+import java.util.function.Consumer;
+
+import io.smallrye.mutiny.Uni;
+
+import dk.kofoed.proxy.domain.CachedToken;
+
+/**
+ * Storage backend behind <code>TokenCache</code>. Implementations are selected by the
+ * <code>auth.proxy.cache.method</code> setting.
+ */
+public interface TokenStore {
+
+    /**
+     * Look up entry for key. Emits a <code>null</code> item if key is unknown.
+     */
+    Uni<CachedToken> get(String key);
+
+    /**
+     * Add or replace entry for key.
+     */
+    Uni<Void> put(String key, CachedToken token);
+
+    /**
+     * Remove entry for key.
+     */
+    Uni<Void> remove(String key);
+
+    /**
+     * Remove entries held by this instance that have expired, and return number of entries removed. Keys of
+     * sessions that have expired are handed to <code>expired</code>.
+     */
+    int removeExpired(long now, Consumer<String> expired);
+
+    /**
+     * Number of entries held by this instance.
+     */
+    int size();
+
+}
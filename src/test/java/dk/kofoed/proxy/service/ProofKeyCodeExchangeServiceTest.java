@@ -0,0 +1,121 @@
+package dk.kofoed.proxy.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Optional;
+
+import org.junit.jupiter.api.Test;
+
+import dk.kofoed.proxy.domain.AuthenticationSessionData;
+import dk.kofoed.proxy.domain.StateMode;
+
+/**
+ * <code>ENCRYPTED</code> state mode, with separate service instances standing in for proxy instances that share
+ * a state key.
+ */
+class ProofKeyCodeExchangeServiceTest {
+
+    private static final String KEY = Base64.getEncoder().encodeToString(new byte[32]);
+
+    private static final String OTHER_KEY = Base64.getEncoder().encodeToString(new byte[16]);
+
+    private static final String CLIENT_ID = "q-oidc-proxy";
+
+    private final ProofKeyCodeExchangeService instanceA = service(KEY, CLIENT_ID, 300);
+
+    private final ProofKeyCodeExchangeService instanceB = service(KEY, CLIENT_ID, 300);
+
+    @Test
+    void stateIssuedByOneInstanceIsAcceptedByAnother() throws Exception {
+        AuthenticationSessionData session = instanceA.buildNewSessionData();
+
+        assertTrue(instanceB.containsState(session.state()));
+        String codeVerifier = instanceB.getCodeVerifier(session.state());
+        assertNotNull(codeVerifier);
+        assertEquals(instanceA.getCodeVerifier(session.state()), codeVerifier);
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(codeVerifier.getBytes(StandardCharsets.US_ASCII));
+        assertEquals(Base64.getUrlEncoder().withoutPadding().encodeToString(digest), session.codeChallenge());
+    }
+
+    @Test
+    void stateIsRejectedAfterCallback() {
+        String state = instanceA.buildNewSessionData().state();
+        assertNotNull(instanceB.getCodeVerifier(state));
+
+        instanceB.removeSessionData(state);
+
+        assertFalse(instanceB.containsState(state));
+        assertNull(instanceB.getCodeVerifier(state));
+    }
+
+    @Test
+    void codeVerifierIsHandedOutOnce() {
+        String state = instanceA.buildNewSessionData().state();
+
+        assertNotNull(instanceB.getCodeVerifier(state));
+
+        assertNull(instanceB.getCodeVerifier(state));
+    }
+
+    @Test
+    void tamperedStateIsRejected() {
+        byte[] state = Base64.getUrlDecoder().decode(instanceA.buildNewSessionData().state());
+        state[state.length / 2] ^= 1;
+
+        assertNull(instanceB.getCodeVerifier(Base64.getUrlEncoder().withoutPadding().encodeToString(state)));
+    }
+
+    @Test
+    void expiredStateIsRejected() {
+        ProofKeyCodeExchangeService expiring = service(KEY, CLIENT_ID, -1);
+
+        String state = expiring.buildNewSessionData().state();
+
+        assertFalse(instanceB.containsState(state));
+    }
+
+    @Test
+    void stateOfOtherClientIdIsRejected() {
+        ProofKeyCodeExchangeService otherClient = service(KEY, "other-client", 300);
+
+        String state = otherClient.buildNewSessionData().state();
+
+        assertFalse(instanceB.containsState(state));
+    }
+
+    @Test
+    void stateEncryptedWithOtherKeyIsRejected() {
+        ProofKeyCodeExchangeService otherKey = service(OTHER_KEY, CLIENT_ID, 300);
+
+        String state = otherKey.buildNewSessionData().state();
+
+        assertFalse(instanceB.containsState(state));
+    }
+
+    @Test
+    void malformedStateIsRejected() {
+        assertFalse(instanceB.containsState(null));
+        assertFalse(instanceB.containsState(""));
+        assertFalse(instanceB.containsState("not a state!"));
+        assertFalse(instanceB.containsState("c2hvcnQ"));
+    }
+
+    private static ProofKeyCodeExchangeService service(String key, String clientId, long ttlSeconds) {
+        ProofKeyCodeExchangeService service = new ProofKeyCodeExchangeService();
+        service.stateMode = StateMode.ENCRYPTED;
+        service.stateKey = Optional.of(key);
+        service.stateTtlSeconds = ttlSeconds;
+        service.clientId = clientId;
+        service.poolSize = 0;
+        service.init();
+        return service;
+    }
+
+}
@@ -0,0 +1,114 @@
+package dk.kofoed.proxy.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.smallrye.mutiny.Uni;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import dk.kofoed.proxy.client.model.AccessTokenResponse;
+import dk.kofoed.proxy.domain.AuthType;
+
+class TokenRefreshServiceTest {
+
+    private static final int CALLERS = 32;
+
+    private final AccessTokenResponse refreshed =
+        new AccessTokenResponse("new-access", 300, 1800, "new-refresh", null, "Bearer", null, null);
+
+    private final CompletableFuture<AccessTokenResponse> tokenEndpoint = new CompletableFuture<>();
+
+    private final AtomicInteger tokenEndpointCalls = new AtomicInteger();
+
+    private TokenRefreshService service;
+
+    private ExecutorService callers;
+
+    @BeforeEach
+    void setUp() {
+        service = new TokenRefreshService();
+        service.authType = AuthType.COOKIE;
+        service.rotationEnabled = false;
+        service.rotationGraceSeconds = 30;
+        service.authService = mock(AuthService.class);
+        service.tokenCache = mock(TokenCache.class);
+        when(service.authService.refreshAccessToken(anyString())).thenReturn(Uni.createFrom().deferred(() -> {
+            tokenEndpointCalls.incrementAndGet();
+            return Uni.createFrom().completionStage(tokenEndpoint);
+        }));
+        when(service.tokenCache.put(eq("session"), any())).thenReturn(Uni.createFrom().voidItem());
+        service.init();
+        callers = Executors.newFixedThreadPool(CALLERS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        callers.shutdownNow();
+    }
+
+    @Test
+    void concurrentRefreshesOfOneSessionCallTokenEndpointOnce() throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<CompletableFuture<AccessTokenResponse>>> calls = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            calls.add(callers.submit(() -> {
+                start.await();
+                return service.refresh("session", "old-refresh").subscribeAsCompletionStage();
+            }));
+        }
+        start.countDown();
+        List<CompletableFuture<AccessTokenResponse>> results = new ArrayList<>();
+        for (Future<CompletableFuture<AccessTokenResponse>> call : calls) {
+            results.add(call.get(5, TimeUnit.SECONDS));
+        }
+
+        // every caller has subscribed while the token endpoint call is still pending
+        tokenEndpoint.complete(refreshed);
+
+        for (CompletableFuture<AccessTokenResponse> result : results) {
+            assertEquals(refreshed, result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, tokenEndpointCalls.get());
+        verify(service.authService, times(1)).refreshAccessToken("old-refresh");
+        verify(service.tokenCache, times(1)).put("session", refreshed);
+    }
+
+    @Test
+    void refreshAfterCompletionCallsTokenEndpointAgain() throws Exception {
+        tokenEndpoint.complete(refreshed);
+        service.refresh("session", "old-refresh").subscribeAsCompletionStage().get(5, TimeUnit.SECONDS);
+        service.refresh("session", "new-refresh").subscribeAsCompletionStage().get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, tokenEndpointCalls.get());
+    }
+
+    @Test
+    void staleCookieWithinGracePeriodReusesUncachedRefresh() throws Exception {
+        tokenEndpoint.complete(refreshed);
+        AccessTokenResponse first = service.refreshUncached("old-refresh").subscribeAsCompletionStage().get(5, TimeUnit.SECONDS);
+        AccessTokenResponse second = service.refreshUncached("old-refresh").subscribeAsCompletionStage().get(5, TimeUnit.SECONDS);
+
+        assertEquals(refreshed, first);
+        assertEquals(refreshed, second);
+        assertEquals(1, tokenEndpointCalls.get());
+    }
+
+}
@@ -0,0 +1,73 @@
+package dk.kofoed.proxy.service.store;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import dk.kofoed.proxy.client.model.AccessTokenResponse;
+import dk.kofoed.proxy.domain.CachedToken;
+
+class MemoryTokenStoreTest {
+
+    private MemoryTokenStore store;
+
+    /**
+     * Start of a whole second well in the past, so expiry times below it fall in one index bucket.
+     */
+    private long second;
+
+    @BeforeEach
+    void setUp() {
+        TokenJournal journal = new TokenJournal();
+        journal.enabled = false;
+        store = new MemoryTokenStore();
+        store.journal = journal;
+        store.init();
+        second = (System.currentTimeMillis() / 1000 - 60) * 1000;
+    }
+
+    @Test
+    void entryRePutWithExpiryInSameSecondIsSwept() {
+        store.put("session", token("access-1", second + 100)).await().indefinitely();
+        store.put("session", token("access-2", second + 200)).await().indefinitely();
+
+        List<String> expired = new ArrayList<>();
+        assertEquals(1, store.removeExpired(second + 2000, expired::add));
+        assertEquals(List.of("session"), expired);
+        assertEquals(0, store.size());
+        assertNull(store.get("session").await().indefinitely());
+    }
+
+    @Test
+    void entryRePutWithLaterExpiryIsSweptAtNewExpiryOnly() {
+        store.put("session", token("access-1", second + 100)).await().indefinitely();
+        store.put("session", token("access-2", second + 10_100)).await().indefinitely();
+
+        assertEquals(0, store.removeExpired(second + 2000, key -> { }));
+        assertNotNull(store.get("session").await().indefinitely());
+        assertEquals(1, store.removeExpired(second + 12_000, key -> { }));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    void removedEntryIsNotReportedAsExpired() {
+        store.put("session", token("access-1", second + 100)).await().indefinitely();
+        store.remove("session").await().indefinitely();
+
+        List<String> expired = new ArrayList<>();
+        assertEquals(0, store.removeExpired(second + 2000, expired::add));
+        assertEquals(List.of(), expired);
+    }
+
+    private static CachedToken token(String accessToken, long expiry) {
+        AccessTokenResponse response = new AccessTokenResponse(accessToken, 300, 1800, "refresh", null, "Bearer", null, null);
+        return new CachedToken(response, "subject", expiry, expiry);
+    }
+
+}
@@ -0,0 +1,30 @@
+package dk.kofoed.proxy.service.store;
+
+import java.util.Map;
+
+import io.quarkus.test.common.QuarkusTestResourceLifecycleManager;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.utility.DockerImageName;
+
+/**
+ * Redis in a container for tests that run against a real server. <code>PEXPIRETIME</code> needs Redis 7.
+ */
+public class RedisTestResource implements QuarkusTestResourceLifecycleManager {
+
+    private GenericContainer<?> redis;
+
+    @Override
+    public Map<String, String> start() {
+        redis = new GenericContainer<>(DockerImageName.parse("redis:7-alpine")).withExposedPorts(6379);
+        redis.start();
+        return Map.of("quarkus.redis.hosts", "redis://" + redis.getHost() + ":" + redis.getMappedPort(6379));
+    }
+
+    @Override
+    public void stop() {
+        if (redis != null) {
+            redis.stop();
+        }
+    }
+
+}
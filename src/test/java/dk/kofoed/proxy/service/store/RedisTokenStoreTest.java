@@ -0,0 +1,156 @@
+package dk.kofoed.proxy.service.store;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import jakarta.inject.Inject;
+import java.time.Duration;
+import java.util.UUID;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.redis.datasource.ReactiveRedisDataSource;
+import io.quarkus.test.common.WithTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import dk.kofoed.proxy.client.model.AccessTokenResponse;
+import dk.kofoed.proxy.domain.CachedToken;
+
+/**
+ * Runs two stores against a real Redis, so they act as two proxy instances sharing it. Each test uses its own
+ * key prefix and invalidation channel.
+ */
+@QuarkusTest
+@WithTestResource(RedisTestResource.class)
+class RedisTokenStoreTest {
+
+    private static final long HOUR = 3_600_000;
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    @Inject
+    ReactiveRedisDataSource redis;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    private String prefix;
+
+    private String channel;
+
+    private RedisTokenStore instanceA;
+
+    private RedisTokenStore instanceB;
+
+    @BeforeEach
+    void setUp() {
+        String test = UUID.randomUUID().toString();
+        prefix = "test:" + test + ":";
+        channel = "invalidations:" + test;
+        instanceA = store();
+        instanceB = store();
+        // stores subscribe in the background, and would miss invalidations published before they are subscribed
+        await().atMost(TIMEOUT).until(() -> subscribers() == 2);
+    }
+
+    @Test
+    void putGetAndRemove() {
+        CachedToken token = token("access-1", System.currentTimeMillis() + HOUR);
+
+        instanceA.put("session", token).await().indefinitely();
+
+        assertEquals(token, instanceA.get("session").await().indefinitely());
+        assertEquals(token, instanceB.get("session").await().indefinitely());
+        instanceA.remove("session").await().indefinitely();
+        assertNull(instanceA.get("session").await().indefinitely());
+        assertNull(redis.value(String.class).get(prefix + "session").await().indefinitely());
+    }
+
+    @Test
+    void entryExpiresInRedisWithItsToken() {
+        long expiry = System.currentTimeMillis() + HOUR;
+
+        instanceA.put("session", token("access-1", expiry)).await().indefinitely();
+
+        assertEquals(expiry, expireTime("session"));
+    }
+
+    @Test
+    void entryWithUnknownExpiryIsKeptForFallbackTtl() {
+        long start = System.currentTimeMillis();
+
+        instanceA.put("session", token("opaque", 0)).await().indefinitely();
+
+        assertNotNull(instanceB.get("session").await().indefinitely());
+        // EX is in whole seconds, counted from when Redis received the command
+        long expiresAt = expireTime("session");
+        assertTrue(expiresAt >= start - 1000 + 600_000 && expiresAt <= System.currentTimeMillis() + 1000 + 600_000);
+    }
+
+    @Test
+    void putInvalidatesNearCacheOfOtherInstances() {
+        instanceA.put("session", token("access-1", System.currentTimeMillis() + HOUR)).await().indefinitely();
+        instanceB.get("session").await().indefinitely();
+
+        CachedToken refreshed = token("access-2", System.currentTimeMillis() + HOUR);
+        instanceA.put("session", refreshed).await().indefinitely();
+
+        await().atMost(TIMEOUT).until(() -> refreshed.equals(instanceB.get("session").await().indefinitely()));
+    }
+
+    @Test
+    void removeInvalidatesNearCacheOfOtherInstances() {
+        instanceA.put("session", token("access-1", System.currentTimeMillis() + HOUR)).await().indefinitely();
+        instanceB.get("session").await().indefinitely();
+
+        instanceA.remove("session").await().indefinitely();
+
+        await().atMost(TIMEOUT).until(() -> instanceB.get("session").await().indefinitely() == null);
+    }
+
+    @Test
+    void nearCacheServesReadsWithoutRedis() {
+        CachedToken token = token("access-1", System.currentTimeMillis() + HOUR);
+        instanceA.put("session", token).await().indefinitely();
+        instanceB.get("session").await().indefinitely();
+
+        // deleted behind the stores' backs, so no invalidation is published
+        redis.key().del(prefix + "session").await().indefinitely();
+
+        assertEquals(token, instanceB.get("session").await().indefinitely());
+    }
+
+    private RedisTokenStore store() {
+        RedisTokenStore store = new RedisTokenStore();
+        store.keyPrefix = prefix;
+        store.channel = channel;
+        store.nearCacheTtlSeconds = 30;
+        store.fallbackTtlSeconds = 600;
+        store.objectMapper = objectMapper;
+        store.redis = redis;
+        store.init();
+        return store;
+    }
+
+    /**
+     * Expiry time of an entry in Redis, as epoch millis.
+     */
+    private long expireTime(String key) {
+        return redis.execute("PEXPIRETIME", prefix + key).await().indefinitely().toLong();
+    }
+
+    private long subscribers() {
+        // reply is the channel followed by its number of subscribers
+        return redis.execute("PUBSUB", "NUMSUB", channel).await().indefinitely().get(1).toLong();
+    }
+
+    private static CachedToken token(String accessToken, long expiry) {
+        AccessTokenResponse response = new AccessTokenResponse(accessToken, 300, 3600, "refresh", null, null, null, null);
+        return new CachedToken(response, "user", expiry, expiry);
+    }
+
+}
@@ -0,0 +1,203 @@
+package dk.kofoed.proxy.service.store;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import dk.kofoed.proxy.client.model.AccessTokenResponse;
+import dk.kofoed.proxy.domain.CachedToken;
+
+class TokenJournalTest {
+
+    private static final String KEY = Base64.getEncoder().encodeToString(new byte[32]);
+
+    private static final long HOUR = 3_600_000;
+
+    private static final int SIZE = 64 * 1024;
+
+    private Path directory;
+
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("token-journal");
+        file = directory.resolve("tokens.journal");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (var files = Files.list(directory)) {
+            for (Path path : files.toList()) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    void recordsRoundTrip() {
+        CachedToken full = new CachedToken(
+            new AccessTokenResponse("access-1", 300, 1800, "refresh-1", "id-1", null, null, null),
+            "subject-1", System.currentTimeMillis() + 300_000, System.currentTimeMillis() + HOUR, "successor-1");
+        CachedToken minimal = new CachedToken(
+            new AccessTokenResponse("access-2", 300, 0, null, null, null, null, null),
+            null, System.currentTimeMillis() + HOUR, 0);
+        Map<String, CachedToken> store = new ConcurrentHashMap<>();
+        TokenJournal journal = open(store, SIZE);
+        put(journal, store, "full", full);
+        put(journal, store, "minimal", minimal);
+        put(journal, store, "removed", token("access-3", System.currentTimeMillis() + HOUR));
+        store.remove("removed");
+        journal.remove("removed", store);
+        journal.close();
+
+        Map<String, CachedToken> restored = new ConcurrentHashMap<>();
+        open(restored, SIZE).close();
+
+        assertEquals(Map.of("full", full, "minimal", minimal), restored);
+    }
+
+    @Test
+    void sessionsSurviveRepeatedRestarts() {
+        Map<String, CachedToken> store = new ConcurrentHashMap<>();
+        TokenJournal journal = open(store, SIZE);
+        put(journal, store, "session", token("access-1", System.currentTimeMillis() + HOUR));
+        journal.close();
+
+        // every restart rewrites the log from the restored sessions
+        Map<String, CachedToken> restored = new ConcurrentHashMap<>();
+        open(restored, SIZE).close();
+        Map<String, CachedToken> restoredAgain = new ConcurrentHashMap<>();
+        open(restoredAgain, SIZE).close();
+
+        assertEquals(store, restoredAgain);
+    }
+
+    @Test
+    void replaySkipsExpiredRecords() {
+        Map<String, CachedToken> store = new ConcurrentHashMap<>();
+        TokenJournal journal = open(store, SIZE);
+        put(journal, store, "live", token("access-1", System.currentTimeMillis() + HOUR));
+        put(journal, store, "expired", token("access-2", System.currentTimeMillis() - 1000));
+        journal.close();
+
+        Map<String, CachedToken> restored = new ConcurrentHashMap<>();
+        open(restored, SIZE).close();
+
+        assertEquals(Map.of("live", store.get("live")), restored);
+    }
+
+    @Test
+    void replayStopsAtTornRecord() throws IOException {
+        Map<String, CachedToken> store = new ConcurrentHashMap<>();
+        TokenJournal journal = open(store, SIZE);
+        put(journal, store, "first", token("access-1", System.currentTimeMillis() + HOUR));
+        put(journal, store, "second", token("access-2", System.currentTimeMillis() + HOUR));
+        journal.close();
+        // a record cut short by a crash: its length made it to disk, but its payload did not
+        appendRecord(new byte[100]);
+
+        Map<String, CachedToken> restored = new ConcurrentHashMap<>();
+        open(restored, SIZE).close();
+
+        assertEquals(store, restored);
+    }
+
+    @Test
+    void fullLogIsCompactedToLiveEntries() {
+        Map<String, CachedToken> store = new ConcurrentHashMap<>();
+        TokenJournal journal = open(store, 4096);
+        for (int i = 0; i < 200; i++) {
+            // each put replaces the previous one, so the log fills up with dead records
+            put(journal, store, "session-" + (i % 3), token("access-" + i, System.currentTimeMillis() + HOUR));
+        }
+        journal.close();
+
+        Map<String, CachedToken> restored = new ConcurrentHashMap<>();
+        open(restored, 4096).close();
+
+        assertEquals(3, restored.size());
+        assertEquals(store, restored);
+    }
+
+    @Test
+    void maintenanceCompactsHalfFullLog() throws IOException {
+        Map<String, CachedToken> store = new ConcurrentHashMap<>();
+        TokenJournal journal = open(store, SIZE);
+        put(journal, store, "session", token("access-0", System.currentTimeMillis() + HOUR));
+        journal.close();
+        int recordSize = endOfRecords();
+
+        // reopening compacts the log to one record; fill it past half its size, but not up to full
+        journal = open(store, SIZE);
+        for (int i = 1; (i + 1) * recordSize <= SIZE * 3 / 4; i++) {
+            put(journal, store, "session", token("access-" + i, System.currentTimeMillis() + HOUR));
+        }
+        journal.maintain(store);
+        journal.close();
+
+        // a single live record is left
+        assertTrue(endOfRecords() < 2 * recordSize);
+        Map<String, CachedToken> restored = new ConcurrentHashMap<>();
+        open(restored, SIZE).close();
+        assertEquals(store, restored);
+    }
+
+    private TokenJournal open(Map<String, CachedToken> store, int size) {
+        TokenJournal journal = new TokenJournal();
+        journal.enabled = true;
+        journal.path = file;
+        journal.key = Optional.of(KEY);
+        journal.size = size;
+        journal.open(store);
+        return journal;
+    }
+
+    private static void put(TokenJournal journal, Map<String, CachedToken> store, String key, CachedToken token) {
+        store.put(key, token);
+        journal.put(key, token, store);
+    }
+
+    private static CachedToken token(String accessToken, long expiry) {
+        AccessTokenResponse response = new AccessTokenResponse(accessToken, 300, 1800, "refresh", null, null, null, null);
+        return new CachedToken(response, "subject", expiry, expiry);
+    }
+
+    /**
+     * Offset just after the last complete record, found the same way replay reads the log.
+     */
+    private int endOfRecords() throws IOException {
+        ByteBuffer log = ByteBuffer.wrap(Files.readAllBytes(file));
+        while (log.remaining() >= Integer.BYTES) {
+            int length = log.getInt(log.position());
+            if (length <= 0 || length > log.remaining() - Integer.BYTES) {
+                break;
+            }
+            log.position(log.position() + Integer.BYTES + length);
+        }
+        return log.position();
+    }
+
+    private void appendRecord(byte[] payload) throws IOException {
+        int end = endOfRecords();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(Integer.BYTES + payload.length).putInt(payload.length).put(payload).flip(), end);
+        }
+    }
+
+}